@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.resource.adapter.couchbase;
+
+import static org.teiid.resource.adapter.couchbase.CouchbaseManagedConnectionFactory.UTIL;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.ResourceException;
+
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.CouchbaseCluster;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+
+/**
+ * Holds the {@code Cluster} and {@code Bucket} shared by all {@link CouchbaseConnectionImpl}
+ * created from the same connection factory.
+ *
+ * The bucket is opened with the first logical connection and stays warm while the factory
+ * is alive, every further connection only increments the reference count. The cluster,
+ * bucket and environment are released once the factory is shut down and the last logical
+ * connection is closed.
+ *
+ * @author kylin
+ *
+ */
+public class CouchbaseBucketHolder {
+
+    private final CouchbaseEnvironment environment;
+    private final String connectionString;
+    private final String keyspace;
+    private final String password;
+    private final TimeUnit timeUnit;
+
+    private Cluster cluster;
+    private Bucket bucket;
+
+    private int references;
+    private boolean shutdown;
+
+    private long openCount;
+    private long reuseCount;
+
+    public CouchbaseBucketHolder(CouchbaseEnvironment environment, String connectionString, String keyspace, String password, TimeUnit timeUnit) {
+        this.environment = environment;
+        this.connectionString = connectionString;
+        this.keyspace = keyspace;
+        this.password = password;
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Returns the shared bucket, open it if this is the first reference.
+     * Each call must be paired with a {@link #release()}.
+     * @return the shared bucket
+     * @throws ResourceException if the holder already be shut down
+     */
+    public synchronized Bucket acquire() throws ResourceException {
+
+        if(this.shutdown) {
+            throw new ResourceException(UTIL.getString("bucket_holder_shutdown", this.keyspace)); //$NON-NLS-1$
+        }
+
+        if(this.bucket == null || this.bucket.isClosed()) {
+            if(this.cluster == null) {
+                this.cluster = connect();
+            }
+            if(this.password != null) {
+                this.bucket = this.cluster.openBucket(this.keyspace, this.password, this.environment.connectTimeout(), this.timeUnit);
+            } else {
+                this.bucket = this.cluster.openBucket(this.keyspace, this.environment.connectTimeout(), this.timeUnit);
+            }
+            this.openCount++;
+        } else {
+            this.reuseCount++;
+        }
+        this.references++;
+        LogManager.logDetail(LogConstants.CTX_CONNECTOR, UTIL.getString("bucket_acquired", this.keyspace, this.references, this.openCount, this.reuseCount)); //$NON-NLS-1$
+        return this.bucket;
+    }
+
+    /**
+     * @return the cluster the bucket be opened from
+     */
+    protected Cluster connect() {
+        return CouchbaseCluster.create(this.environment, this.connectionString);
+    }
+
+    /**
+     * Releases a reference which returned by {@link #acquire()}.
+     */
+    public synchronized void release() {
+        if(this.references > 0) {
+            this.references--;
+        }
+        if(this.shutdown && this.references == 0) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Marks the holder as shut down, the cluster be disconnected immediately if no
+     * logical connection reference it, otherwise with the release of the last reference.
+     */
+    public synchronized void shutdown() {
+        this.shutdown = true;
+        if(this.references == 0) {
+            disconnect();
+        }
+    }
+
+    private void disconnect() {
+        if(this.bucket != null) {
+            this.bucket.close();
+            this.bucket = null;
+        }
+        if(this.cluster != null) {
+            this.cluster.disconnect();
+            this.cluster = null;
+        }
+        this.environment.shutdown();
+        LogManager.logDetail(LogConstants.CTX_CONNECTOR, UTIL.getString("bucket_disconnected", this.keyspace, this.openCount, this.reuseCount)); //$NON-NLS-1$
+    }
+
+    /**
+     * @return how many times the bucket be opened, including reopened after it was closed by server side
+     */
+    public synchronized long getOpenCount() {
+        return this.openCount;
+    }
+
+    /**
+     * @return how many logical connections reused an already opened bucket
+     */
+    public synchronized long getReuseCount() {
+        return this.reuseCount;
+    }
+
+    /**
+     * @return the number of logical connections currently reference the bucket
+     */
+    public synchronized int getReferenceCount() {
+        return this.references;
+    }
+}
@@ -22,8 +22,6 @@
 
 package org.teiid.resource.adapter.couchbase;
 
-import java.util.concurrent.TimeUnit;
-
 import javax.resource.ResourceException;
 
 import org.teiid.core.BundleUtil;
@@ -31,29 +29,25 @@ import org.teiid.couchbase.CouchbaseConnection;
 import org.teiid.resource.spi.BasicConnection;
 
 import com.couchbase.client.java.Bucket;
-import com.couchbase.client.java.Cluster;
-import com.couchbase.client.java.CouchbaseCluster;
-import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
 import com.couchbase.client.java.query.N1qlQuery;
 import com.couchbase.client.java.query.N1qlQueryResult;
 
+import rx.Observable;
+
 public class CouchbaseConnectionImpl extends BasicConnection implements CouchbaseConnection {
     
 	static final BundleUtil UTIL = BundleUtil.getBundleUtil(CouchbaseConnectionImpl.class);
 
-	private Cluster cluster;
+	private CouchbaseBucketHolder bucketHolder;
 	private Bucket bucket;
 	
 	private String namespace; // map to namespaces
 	
-	public CouchbaseConnectionImpl(CouchbaseEnvironment environment, String connectionString, String keyspace, String password, TimeUnit timeUnit, String namespace){
-	    
-	    this.cluster = CouchbaseCluster.create(environment, connectionString);  
-	    if(password != null) {
-            this.bucket = this.cluster.openBucket(keyspace, password, environment.connectTimeout(), timeUnit);
-        } else {
-            this.bucket = this.cluster.openBucket(keyspace, environment.connectTimeout(), timeUnit);
-        }
+	public CouchbaseConnectionImpl(CouchbaseBucketHolder bucketHolder, String namespace) throws ResourceException {
+	    this.bucketHolder = bucketHolder;
+	    this.bucket = bucketHolder.acquire();
 	    this.namespace = namespace;
 	}
 
@@ -67,12 +61,28 @@ public class CouchbaseConnectionImpl extends BasicConnection implements Couchbas
         return this.bucket.query(query); 
     }
     
+    @Override
+    public Observable<AsyncN1qlQueryResult> executeAsyncQuery(N1qlQuery query) {
+        return this.bucket.async().query(query);
+    }
+    
+    @Override
+    public RawJsonDocument getDocument(String id) {
+        return this.bucket.get(id, RawJsonDocument.class);
+    }
+    
+    @Override
+    public Observable<RawJsonDocument> getAsyncDocument(String id) {
+        return this.bucket.async().get(id, RawJsonDocument.class);
+    }
+    
     @Override
     public void close() throws ResourceException {
+        // the bucket is shared by all connections of the factory, only release the reference
         if(this.bucket != null) {
-            this.bucket.close();
+            this.bucket = null;
+            this.bucketHolder.release();
         }
-        this.cluster.disconnect();
     }
 
     @Override
@@ -80,4 +90,9 @@ public class CouchbaseConnectionImpl extends BasicConnection implements Couchbas
         return this.namespace;
     }
 
+    @Override
+    public String getKeyspaceName() {
+        return this.bucket.name();
+    }
+
 }
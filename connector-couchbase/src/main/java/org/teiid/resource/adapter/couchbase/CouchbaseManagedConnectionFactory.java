@@ -81,6 +81,11 @@ public class CouchbaseManagedConnectionFactory extends BasicManagedConnectionFac
 	 */
 	private String timeUnit = null;
 	
+	/**
+	 * The Cluster/Bucket shared by all connections created from the current connection factory
+	 */
+	private transient CouchbaseBucketHolder bucketHolder;
+	
 
 	public Long getManagementTimeout() {
         return managementTimeout;
@@ -212,13 +217,19 @@ public class CouchbaseManagedConnectionFactory extends BasicManagedConnectionFac
                 throw new InvalidPropertyException(UTIL.getString("invalid_timeUnit", timeUnit)); //$NON-NLS-1$
             }
 		}
-		final TimeUnit timeoutUnit = unit;
+		
+		// a new connection factory replaces the previous one, release the previous shared bucket
+		if(this.bucketHolder != null) {
+		    this.bucketHolder.shutdown();
+		}
+		final CouchbaseBucketHolder holder = new CouchbaseBucketHolder(environment, connectionString, keyspace, password, unit);
+		this.bucketHolder = holder;
 
 		return new BasicConnectionFactory<CouchbaseConnectionImpl>(){
 
             @Override
             public CouchbaseConnectionImpl getConnection() throws ResourceException {
-                return new CouchbaseConnectionImpl(environment, connectionString, keyspace, password, timeoutUnit, namespace);
+                return new CouchbaseConnectionImpl(holder, namespace);
             }};
 		
 	}
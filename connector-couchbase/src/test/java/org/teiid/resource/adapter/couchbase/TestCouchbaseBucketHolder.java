@@ -0,0 +1,143 @@
+package org.teiid.resource.adapter.couchbase;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.resource.ResourceException;
+
+import org.junit.Test;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+
+@SuppressWarnings("nls")
+public class TestCouchbaseBucketHolder {
+
+    private final List<AtomicBoolean> buckets = new ArrayList<>();
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+    private final AtomicBoolean environmentShutdown = new AtomicBoolean();
+
+    private CouchbaseBucketHolder holder() {
+        CouchbaseEnvironment environment = fake(CouchbaseEnvironment.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if(method.getName().equals("shutdown")) {
+                    environmentShutdown.set(true);
+                }
+                return method.getName().equals("connectTimeout") ? 5000L : defaultValue(method);
+            }});
+        final Cluster cluster = fake(Cluster.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if(method.getName().equals("openBucket")) {
+                    return bucket();
+                } else if(method.getName().equals("disconnect")) {
+                    disconnected.set(true);
+                }
+                return defaultValue(method);
+            }});
+        return new CouchbaseBucketHolder(environment, "localhost", "default", null, TimeUnit.MILLISECONDS) {
+            @Override
+            protected Cluster connect() {
+                return cluster;
+            }
+        };
+    }
+
+    private Bucket bucket() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        this.buckets.add(closed);
+        return fake(Bucket.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if(method.getName().equals("isClosed")) {
+                    return closed.get();
+                } else if(method.getName().equals("close")) {
+                    closed.set(true);
+                }
+                return defaultValue(method);
+            }});
+    }
+
+    @Test
+    public void testOpenOnce() throws ResourceException {
+        CouchbaseBucketHolder holder = holder();
+        Bucket bucket = holder.acquire();
+        assertSame(bucket, holder.acquire());
+        assertSame(bucket, holder.acquire());
+        assertEquals(1, this.buckets.size());
+        assertEquals(1, holder.getOpenCount());
+        assertEquals(2, holder.getReuseCount());
+        assertEquals(3, holder.getReferenceCount());
+    }
+
+    @Test
+    public void testReopenClosedBucket() throws ResourceException {
+        CouchbaseBucketHolder holder = holder();
+        Bucket bucket = holder.acquire();
+        this.buckets.get(0).set(true); // closed by the server side
+        assertNotSame(bucket, holder.acquire());
+        assertEquals(2, holder.getOpenCount());
+        assertEquals(0, holder.getReuseCount());
+        assertFalse(this.disconnected.get());
+    }
+
+    @Test
+    public void testCloseWithLastRelease() throws ResourceException {
+        CouchbaseBucketHolder holder = holder();
+        holder.acquire();
+        holder.acquire();
+
+        holder.release();
+        holder.shutdown();
+        assertFalse(this.buckets.get(0).get());
+        assertFalse(this.disconnected.get());
+
+        holder.release();
+        assertEquals(0, holder.getReferenceCount());
+        assertTrue(this.buckets.get(0).get());
+        assertTrue(this.disconnected.get());
+        assertTrue(this.environmentShutdown.get());
+
+        try {
+            holder.acquire();
+            fail();
+        } catch (ResourceException e) {
+            // shut down
+        }
+    }
+
+    @Test
+    public void testShutdownWithoutReference() throws ResourceException {
+        CouchbaseBucketHolder holder = holder();
+        holder.acquire();
+        holder.release();
+        assertFalse(this.disconnected.get());
+        holder.shutdown();
+        assertTrue(this.buckets.get(0).get());
+        assertTrue(this.disconnected.get());
+    }
+
+    private static <T> T fake(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object defaultValue(Method method) {
+        if(method.getReturnType() == boolean.class) {
+            return true;
+        } else if(method.getReturnType() == long.class) {
+            return 0L;
+        } else if(method.getReturnType() == int.class) {
+            return 0;
+        }
+        return null;
+    }
+}
@@ -23,9 +23,13 @@ package org.teiid.couchbase;
 
 import javax.resource.cci.Connection;
 
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
 import com.couchbase.client.java.query.N1qlQuery;
 import com.couchbase.client.java.query.N1qlQueryResult;
 
+import rx.Observable;
+
 /**
  * The Logical Hierarchy of a Couchbase cluster looks
  * <pre>
@@ -52,6 +56,29 @@ public interface CouchbaseConnection extends Connection {
      */
     String getNamespace();
     
+    /**
+     * Returns the name of the Keyspace(bucket) the connection opened
+     * @return
+     */
+    String getKeyspaceName();
+    
+    /**
+     * Retrieves a document of the opened Keyspace by id via the key-value service,
+     * without going through the query service.
+     * @param id the document id
+     * @return the raw JSON document, or null if the document not exist
+     */
+    RawJsonDocument getDocument(String id);
+    
+    /**
+     * Retrieves a document of the opened Keyspace by id via the key-value service asynchronously,
+     * the gets of several documents be executed in parallel over the same bucket.
+     * @param id the document id
+     * @return returns a <code>Observable</code> which emits the raw JSON document, or completes 
+     *         without emitting if the document not exist
+     */
+    Observable<RawJsonDocument> getAsyncDocument(String id);
+    
     /**
      * Executes the given N1QL statement, which returns a single <code>N1qlQueryResult</code> 
      * object.
@@ -69,4 +96,13 @@ public interface CouchbaseConnection extends Connection {
      *         produced by the given query.
      */
     N1qlQueryResult executeQuery(N1qlQuery query);
+    
+    /**
+     * Executes the given <code>N1qlQuery</code> asynchronously, without buffering the result.
+     * The rows of the emitted <code>AsyncN1qlQueryResult</code> are delivered as they arrive
+     * from the query service and honor the backpressure requested by the subscriber.
+     * @param query is a <code>N1qlQuery</code> object which represents a N1QL statement.
+     * @return returns a <code>Observable</code> which emits a single <code>AsyncN1qlQueryResult</code>
+     */
+    Observable<AsyncN1qlQueryResult> executeAsyncQuery(N1qlQuery query);
 }
@@ -0,0 +1,268 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseProperties.COLON;
+import static org.teiid.translator.couchbase.CouchbaseProperties.WAVE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+/**
+ * Samples the documents of a keyspace, or of a type of a keyspace, in batches of increasing size 
+ * rather than read the first SampleSize documents of the primary index.
+ * 
+ * The first batch be read from the head of the key space, each following batch be read from a random 
+ * pivot key between the lowest and the highest document key, so the sample be spread over the key space. 
+ * The caller scans each batch and reports the number of the new columns, array tables and type widenings 
+ * the batch added, the sampling converged once {@link #CONVERGED_BATCHES} batches in a row added nothing.
+ * 
+ * The sampling also stops once SampleSize documents be read, the time budget or the byte budget be used up, 
+ * or the batches no more return documents not seen before.
+ * 
+ * @author kylin
+ *
+ */
+public class AdaptiveSampler {
+    
+    static final int INITIAL_BATCH_SIZE = 10;
+    static final int CONVERGED_BATCHES = 2;
+    static final int MAX_STALE_BATCHES = 3;
+    
+    private static final String PK = "PK"; //$NON-NLS-1$
+    private static final char MIN_CHAR = '!';
+    private static final char MAX_CHAR = '~';
+    
+    private final CouchbaseConnection conn;
+    private final String namespace;
+    private final String keyspace;
+    private final String typedPredicate;
+    private final int maxDocuments;
+    private final long timeBudget;
+    private final long byteBudget;
+    private final Random random;
+    
+    private final Set<String> seen = new HashSet<>();
+    private int batchSize = INITIAL_BATCH_SIZE;
+    private int batches;
+    private long bytes;
+    private long deadline;
+    private int stableBatches;
+    private int staleBatches;
+    private boolean stopped;
+    private String lowKey;
+    private String highKey;
+    
+    /**
+     * @param typedPredicate - the predicate like {@code `type`='Customer'} of a typed table, or null
+     * @param maxDocuments - the maximum number of documents be sampled, the SampleSize
+     * @param timeBudget - the time budget in milliseconds of the follow-up batches, started from the first of them
+     * @param byteBudget - the maximum bytes of the rows be read
+     */
+    public AdaptiveSampler(CouchbaseConnection conn, String namespace, String keyspace, String typedPredicate, int maxDocuments, long timeBudget, long byteBudget, Random random) {
+        this.conn = conn;
+        this.namespace = namespace;
+        this.keyspace = keyspace;
+        this.typedPredicate = typedPredicate;
+        this.maxDocuments = maxDocuments;
+        this.timeBudget = timeBudget;
+        this.byteBudget = byteBudget;
+        this.random = random;
+    }
+    
+    /**
+     * Reads the next batch.
+     * @return the documents not seen before, without the keyspace wrapper, empty if the sampling stopped
+     */
+    public List<JsonObject> next() {
+        
+        if(!this.stopped && this.batches > 0 && this.deadline == 0) {
+            // the head batch may be prefetched long before, the time budget starts with the follow-up batches
+            this.deadline = System.currentTimeMillis() + this.timeBudget;
+        }
+        if(this.stopped || (this.batches > 0 && System.currentTimeMillis() >= this.deadline) || this.bytes >= this.byteBudget) {
+            this.stopped = true;
+            return Collections.emptyList();
+        }
+        
+        int limit = Math.min(this.batchSize, this.maxDocuments - this.seen.size());
+        if(limit <= 0) {
+            this.stopped = true;
+            return Collections.emptyList();
+        }
+        
+        String pivot = null;
+        if(this.batches > 0) {
+            if(this.highKey == null) {
+                this.highKey = loadHighKey();
+            }
+            if(this.lowKey == null || this.highKey == null) {
+                this.stopped = true;
+                return Collections.emptyList();
+            }
+            pivot = randomKey(this.lowKey, this.highKey, this.random);
+        }
+        
+        String query = buildN1QLBatch(pivot, limit);
+        LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, query));
+        List<N1qlQueryRow> rows = this.conn.executeQuery(query).allRows();
+        
+        List<JsonObject> results = new ArrayList<>();
+        for(N1qlQueryRow row : rows) {
+            this.bytes += row.byteValue().length;
+            JsonObject value = row.value();
+            String id = value.getString(PK);
+            JsonObject document = value.getObject(this.keyspace);
+            if(this.lowKey == null) {
+                this.lowKey = id;
+            }
+            if(id != null && document != null && this.seen.add(id)) {
+                results.add(document);
+            }
+        }
+        
+        this.batches++;
+        this.batchSize *= 2;
+        if(pivot == null && rows.size() < limit) {
+            // the head batch read all documents
+            this.stopped = true;
+        }
+        if(results.isEmpty() && ++this.staleBatches >= MAX_STALE_BATCHES) {
+            this.stopped = true;
+        } else if(!results.isEmpty()) {
+            this.staleBatches = 0;
+        }
+        return results;
+    }
+    
+    /**
+     * Records the schema changes the last batch made.
+     * @param changes - the number of the new columns, array tables and type widenings of the last batch
+     * @return true if the sampling converged, or stopped, no more batch need be read
+     */
+    public boolean converged(int changes) {
+        if(changes == 0) {
+            this.stableBatches++;
+        } else {
+            this.stableBatches = 0;
+        }
+        return this.stopped || this.stableBatches >= CONVERGED_BATCHES || this.seen.size() >= this.maxDocuments;
+    }
+    
+    public int getSampled() {
+        return this.seen.size();
+    }
+    
+    public int getBatches() {
+        return this.batches;
+    }
+    
+    private String loadHighKey() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT meta(").append(nameInSource(this.keyspace)).append(").id AS ").append(PK); //$NON-NLS-1$ //$NON-NLS-2$
+        sb.append(from());
+        if(this.typedPredicate != null) {
+            sb.append(" WHERE ").append(this.typedPredicate); //$NON-NLS-1$
+        }
+        sb.append(" ORDER BY meta(").append(nameInSource(this.keyspace)).append(").id DESC LIMIT 1"); //$NON-NLS-1$ //$NON-NLS-2$
+        String query = sb.toString();
+        LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, query));
+        N1qlQueryResult result = this.conn.executeQuery(query);
+        List<N1qlQueryRow> rows = result.allRows();
+        if(!result.finalSuccess() || rows.isEmpty()) {
+            return null;
+        }
+        return rows.get(0).value().getString(PK);
+    }
+    
+    private String buildN1QLBatch(String pivot, int limit) {
+        String id = "meta(" + nameInSource(this.keyspace) + ").id"; //$NON-NLS-1$ //$NON-NLS-2$
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ").append(id).append(" AS ").append(PK).append(", ").append(nameInSource(this.keyspace)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        sb.append(from());
+        if(pivot != null || this.typedPredicate != null) {
+            sb.append(" WHERE "); //$NON-NLS-1$
+            if(pivot != null) {
+                sb.append(id).append(" >= '").append(pivot.replace("'", "''")).append("'"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            }
+            if(pivot != null && this.typedPredicate != null) {
+                sb.append(" AND "); //$NON-NLS-1$
+            }
+            if(this.typedPredicate != null) {
+                sb.append(this.typedPredicate);
+            }
+        }
+        sb.append(" ORDER BY ").append(id); //$NON-NLS-1$
+        sb.append(" LIMIT ").append(limit); //$NON-NLS-1$
+        return sb.toString();
+    }
+    
+    private String from() {
+        return " FROM " + nameInSource(this.namespace) + COLON + nameInSource(this.keyspace); //$NON-NLS-1$
+    }
+    
+    private static String nameInSource(String name) {
+        return WAVE + name + WAVE;
+    }
+    
+    /**
+     * A random key between the low key and the high key. The key shares the common prefix of the bounds, 
+     * the next character be picked randomly between the characters of the bounds at that position, a few 
+     * random characters be appended if the key is still lower than the high key.
+     */
+    static String randomKey(String low, String high, Random random) {
+        if(low.compareTo(high) >= 0) {
+            return low;
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while(i < low.length() && i < high.length() && low.charAt(i) == high.charAt(i)) {
+            sb.append(low.charAt(i++));
+        }
+        char from = i < low.length() ? low.charAt(i) : (char)(MIN_CHAR - 1);
+        char to = i < high.length() ? high.charAt(i) : MIN_CHAR;
+        if(to <= from) {
+            return low;
+        }
+        char c = (char) (from + 1 + random.nextInt(to - from));
+        sb.append(c);
+        if(c < to) {
+            int suffix = random.nextInt(4);
+            for(int j = 0 ; j < suffix ; j ++) {
+                sb.append((char) (MIN_CHAR + random.nextInt(MAX_CHAR - MIN_CHAR + 1)));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -21,9 +21,31 @@
  */
 package org.teiid.translator.couchbase;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
 import org.teiid.metadata.RuntimeMetadata;
+import org.teiid.translator.DataNotAvailableException;
 import org.teiid.translator.ExecutionContext;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.couchbase.N1QLRowStream.QueryFailedException;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
 
 public class CouchbaseExecution {
     
@@ -31,6 +53,13 @@ public class CouchbaseExecution {
 	protected RuntimeMetadata metadata;
 	protected CouchbaseConnection connection;
 	protected CouchbaseExecutionFactory executionFactory;
+	
+	// be released by a cancel from another thread while the engine thread consumes them
+	private volatile Iterator<N1qlQueryRow> results;
+	private volatile N1QLRowStream stream;
+	
+	private String clientContextId;
+	private volatile boolean inFlight;
 
 	protected CouchbaseExecution(CouchbaseExecutionFactory executionFactory, ExecutionContext executionContext, RuntimeMetadata metadata, CouchbaseConnection connection) {
 	    this.executionFactory = executionFactory;
@@ -38,4 +67,289 @@ public class CouchbaseExecution {
 		this.metadata = metadata;
 		this.connection = connection;
 	}
+	
+	/**
+	 * Executes the N1QL statement whose {@code USE KEYS} keys be the parameter at {@code keysIndex}, 
+	 * the keys be split to batches of the configured size, the batches be executed concurrently 
+	 * over the shared bucket and the rows be merged. A negative {@code keysIndex} means the statement
+	 * must see all keys at once, for example an aggregate or a row limit, and be executed as is.
+	 */
+	protected void executeN1QL(String statement, JsonArray parameters, int keysIndex) throws TranslatorException {
+	    
+	    int batchSize = this.executionFactory.getUseKeysBatchSize();
+	    if(keysIndex < 0 || batchSize <= 0 || parameters.getArray(keysIndex).size() <= batchSize) {
+	        executeN1QL(statement, parameters);
+	        return;
+	    }
+	    
+	    List<Object> keys = parameters.getArray(keysIndex).toList();
+	    List<Observable<AsyncN1qlQueryRow>> batches = new ArrayList<>();
+	    for(int i = 0 ; i < keys.size() ; i += batchSize) {
+	        JsonArray batchParameters = JsonArray.create();
+	        for(int j = 0 ; j < parameters.size() ; j ++) {
+	            batchParameters.add(j == keysIndex ? JsonArray.from(keys.subList(i, Math.min(i + batchSize, keys.size()))) : parameters.get(j));
+	        }
+	        batches.add(defer(N1qlQuery.parameterized(statement, batchParameters, buildParams().adhoc(!this.executionFactory.isUsePreparedStatements()))));
+	    }
+	    LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29023, keys.size(), batches.size()));
+	    openStream(Observable.merge(batches, Math.max(1, this.executionFactory.getUseKeysBatchConcurrency())));
+	}
+	
+	/**
+	 * Executes the N1QL statements, each with its positional parameters, at most {@code concurrency} 
+	 * statements be executed concurrently over the shared bucket and the rows be merged.
+	 */
+	protected void executeN1QL(List<String> statements, List<JsonArray> parameters, int concurrency) {
+	    List<Observable<AsyncN1qlQueryRow>> requests = new ArrayList<>(statements.size());
+	    for(int i = 0 ; i < statements.size() ; i ++) {
+	        JsonArray params = parameters.get(i);
+	        requests.add(defer(params.isEmpty() ? N1qlQuery.simple(statements.get(i), buildParams()) : N1qlQuery.parameterized(statements.get(i), params, buildParams())));
+	    }
+	    openStream(Observable.merge(requests, Math.max(1, concurrency)));
+	}
+	
+	private Observable<AsyncN1qlQueryRow> defer(final N1qlQuery query) {
+	    return Observable.defer(new Func0<Observable<AsyncN1qlQueryRow>>() {
+	        @Override
+	        public Observable<AsyncN1qlQueryRow> call() {
+	            return N1QLRowStream.rows(connection.executeAsyncQuery(query));
+	        }});
+	}
+	
+	/**
+	 * Executes the N1QL statement with the positional parameters, as a named prepared statement
+	 * if the translator configured with prepared statements.
+	 */
+	protected void executeN1QL(final String statement, final JsonArray parameters) throws TranslatorException {
+	    
+	    if(!this.executionFactory.isUsePreparedStatements()) {
+	        executeN1QL(parameters.isEmpty() ? N1qlQuery.simple(statement, buildParams()) : N1qlQuery.parameterized(statement, parameters, buildParams()));
+	        return;
+	    }
+	    
+	    final PreparedStatementCache cache = this.executionFactory.getPreparedStatementCache();
+	    String name = cache.get(statement);
+	    if(name == null) {
+	        name = prepare(cache, statement);
+	    }
+	    N1qlQuery query = N1qlQuery.parameterized(buildExecute(name), parameters, buildParams());
+	    
+	    if(isStreaming()) {
+	        // the plan invalidated error arrives with the rows, prepare again and execute the new plan
+	        Observable<AsyncN1qlQueryRow> rows = N1QLRowStream.rows(this.connection.executeAsyncQuery(query)).onErrorResumeNext(new Func1<Throwable, Observable<AsyncN1qlQueryRow>>() {
+	            @Override
+	            public Observable<AsyncN1qlQueryRow> call(Throwable t) {
+	                if(t instanceof QueryFailedException && PreparedStatementCache.isPlanInvalidated(((QueryFailedException)t).getErrors())) {
+	                    cache.invalidate(statement);
+	                    return prepareAsync(cache, statement, parameters);
+	                }
+	                return Observable.error(t);
+	            }});
+	        openStream(rows);
+	    } else {
+	        this.inFlight = true;
+	        try {
+	            N1qlQueryResult result = this.connection.executeQuery(query);
+	            if(!result.finalSuccess() && PreparedStatementCache.isPlanInvalidated(result.errors())) {
+	                cache.invalidate(statement);
+	                name = prepare(cache, statement);
+	                result = this.connection.executeQuery(N1qlQuery.parameterized(buildExecute(name), parameters, buildParams()));
+	            }
+	            this.results = result.iterator();
+	        } finally {
+	            this.inFlight = false;
+	        }
+	    }
+	}
+	
+	private String prepare(PreparedStatementCache cache, String statement) throws TranslatorException {
+	    String name = cache.generateName();
+	    String prepare = buildPrepare(name, statement);
+	    LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29017, prepare, cache.getHitCount(), cache.getMissCount()));
+	    N1qlQueryResult result = this.connection.executeQuery(N1qlQuery.simple(prepare, buildParams()));
+	    if(!result.finalSuccess()) {
+	        throw new TranslatorException(CouchbasePlugin.Event.TEIID29018, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29018, statement, result.errors()));
+	    }
+	    cache.put(statement, name);
+	    deletePrepared(cache);
+	    return name;
+	}
+	
+	/**
+	 * Prepares the statement again without blocking, the same as {@link #prepare(PreparedStatementCache, String)}, 
+	 * then executes the new prepared statement.
+	 */
+	private Observable<AsyncN1qlQueryRow> prepareAsync(final PreparedStatementCache cache, final String statement, final JsonArray parameters) {
+	    final String name = cache.generateName();
+	    String prepare = buildPrepare(name, statement);
+	    LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29017, prepare, cache.getHitCount(), cache.getMissCount()));
+	    return N1QLRowStream.rows(this.connection.executeAsyncQuery(N1qlQuery.simple(prepare, buildParams()))).ignoreElements().concatWith(Observable.defer(new Func0<Observable<AsyncN1qlQueryRow>>() {
+	        @Override
+	        public Observable<AsyncN1qlQueryRow> call() {
+	            cache.put(statement, name);
+	            deletePrepared(cache);
+	            return N1QLRowStream.rows(connection.executeAsyncQuery(N1qlQuery.parameterized(buildExecute(name), parameters, buildParams())));
+	        }}));
+	}
+	
+	/**
+	 * Deletes the named statements be evicted, invalidated or replaced in the cache from the server, 
+	 * without waiting, a failure only be logged.
+	 */
+	private void deletePrepared(PreparedStatementCache cache) {
+	    for(final String name : cache.drainRemoved()) {
+	        String delete = "DELETE FROM system:prepareds WHERE name = $1"; //$NON-NLS-1$
+	        N1QLRowStream.rows(this.connection.executeAsyncQuery(N1qlQuery.parameterized(delete, JsonArray.from(name)))).subscribe(new Subscriber<AsyncN1qlQueryRow>() {
+	            @Override
+	            public void onNext(AsyncN1qlQueryRow row) {
+	            }
+	            @Override
+	            public void onError(Throwable e) {
+	                LogManager.logDetail(LogConstants.CTX_CONNECTOR, e, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29043, name, e.getMessage()));
+	            }
+	            @Override
+	            public void onCompleted() {
+	            }});
+	    }
+	}
+	
+	private String buildPrepare(String name, String statement) {
+	    return "PREPARE `" + name + "` FROM " + statement; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+	
+	private String buildExecute(String name) {
+	    return "EXECUTE `" + name + "`"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+	
+	/**
+	 * Executes the N1QL, either buffers the whole result, or consumes the rows as they arrive
+	 * if the translator configured with streaming results or asynchronous execution.
+	 * 
+	 * The asynchronous execution returns immediately, the engine thread be released while
+	 * waiting the rows, and be notified via {@link ExecutionContext#dataAvailable()}.
+	 */
+	protected void executeN1QL(N1qlQuery query) {
+	    if(isStreaming()) {
+	        openStream(N1QLRowStream.rows(this.connection.executeAsyncQuery(query)));
+	    } else {
+	        this.inFlight = true;
+	        try {
+	            this.results = this.connection.executeQuery(query).iterator();
+	        } finally {
+	            this.inFlight = false;
+	        }
+	    }
+	}
+	
+	private boolean isStreaming() {
+	    return this.executionFactory.isAsynchronousExecution() || this.executionFactory.isStreamingResults();
+	}
+	
+	/**
+	 * Consumes the rows of the N1QL requests, which be in flight on the query service until the rows terminated.
+	 */
+	private void openStream(Observable<AsyncN1qlQueryRow> rows) {
+	    this.inFlight = true;
+	    subscribe(rows.doOnTerminate(new Action0() {
+	        @Override
+	        public void call() {
+	            inFlight = false;
+	        }}));
+	}
+	
+	private void subscribe(Observable<AsyncN1qlQueryRow> rows) {
+	    N1QLRowStream rowStream = new N1QLRowStream(this.executionFactory.getStreamingBufferSize());
+	    if(this.executionFactory.isAsynchronousExecution()) {
+	        rowStream.listen(new Runnable() {
+	            @Override
+	            public void run() {
+	                executionContext.dataAvailable();
+	            }});
+	    }
+	    this.stream = rowStream;
+	    rowStream.subscribeRows(rows);
+	}
+	
+	/**
+	 * Consumes the rows which retrieved without the query service as they arrive, the same as the 
+	 * streamed N1QL, a failure of the retrieval be thrown by {@link #nextRow()}.
+	 */
+	protected void openRows(Observable<AsyncN1qlQueryRow> rows) {
+	    subscribe(rows);
+	}
+	
+	/**
+	 * Uses the rows which retrieved without the query service, for example, via the key-value service.
+	 */
+	protected void setRows(List<N1qlQueryRow> rows) {
+	    this.results = rows.iterator();
+	}
+	
+	/**
+	 * @return the next row of the executed N1QL, or null if no more rows
+	 * @throws DataNotAvailableException if executed asynchronously and the next row not arrived yet
+	 */
+	protected N1qlQueryRow nextRow() throws TranslatorException, DataNotAvailableException {
+	    N1QLRowStream rowStream = this.stream;
+	    if(rowStream != null) {
+	        if(this.executionFactory.isAsynchronousExecution()) {
+	            return rowStream.poll();
+	        }
+	        return rowStream.take();
+	    }
+	    Iterator<N1qlQueryRow> rows = this.results;
+	    if(rows != null && rows.hasNext()) {
+	        return rows.next();
+	    }
+	    return null;
+	}
+	
+	/**
+	 * @return the client context id of the N1QL requests of this execution, correlated to the Teiid request
+	 */
+	protected String getClientContextId() {
+	    if(this.clientContextId == null) {
+	        StringBuilder sb = new StringBuilder("teiid-"); //$NON-NLS-1$
+	        if(this.executionContext != null) {
+	            sb.append(this.executionContext.getRequestId()).append('.');
+	            sb.append(this.executionContext.getPartIdentifier()).append('.');
+	            sb.append(this.executionContext.getExecutionCountIdentifier());
+	        } else {
+	            sb.append(System.identityHashCode(this));
+	        }
+	        this.clientContextId = sb.toString();
+	    }
+	    return this.clientContextId;
+	}
+	
+	protected N1qlParams buildParams() {
+	    return N1qlParams.build().withContextId(getClientContextId());
+	}
+	
+	/**
+	 * Aborts the in-flight N1QL requests of this execution on the query service, and releases 
+	 * the rows stream immediately.
+	 */
+	protected void cancelN1QL() {
+	    if(this.inFlight) {
+	        String delete = "DELETE FROM system:active_requests WHERE clientContextID = $1"; //$NON-NLS-1$
+	        LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29024, getClientContextId()));
+	        try {
+	            this.connection.executeQuery(N1qlQuery.parameterized(delete, JsonArray.from(getClientContextId())));
+	        } catch (RuntimeException e) {
+	            LogManager.logDetail(LogConstants.CTX_CONNECTOR, e, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29025, getClientContextId()));
+	        }
+	    }
+	    closeResults();
+	}
+	
+	protected void closeResults() {
+	    this.results = null;
+	    this.inFlight = false;
+	    N1QLRowStream rowStream = this.stream;
+	    this.stream = null;
+	    if(rowStream != null) {
+	        rowStream.close();
+	    }
+	}
 }
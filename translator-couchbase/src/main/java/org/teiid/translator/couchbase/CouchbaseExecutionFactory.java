@@ -23,20 +23,28 @@ package org.teiid.translator.couchbase;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.resource.cci.ConnectionFactory;
 
-import org.teiid.core.types.ClobImpl;
-import org.teiid.core.types.ClobType;
+import org.teiid.core.util.PropertiesUtils;
 import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.events.EventDistributor;
+import org.teiid.events.EventDistributorFactory;
 import org.teiid.language.Call;
 import org.teiid.language.Expression;
 import org.teiid.language.Function;
 import org.teiid.language.QueryExpression;
 import org.teiid.language.SQLConstants.Tokens;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+import org.teiid.metadata.MetadataFactory;
 import org.teiid.metadata.RuntimeMetadata;
 import org.teiid.translator.ExecutionContext;
 import org.teiid.translator.ExecutionFactory;
@@ -46,6 +54,7 @@ import org.teiid.translator.ResultSetExecution;
 import org.teiid.translator.SourceSystemFunctions;
 import org.teiid.translator.Translator;
 import org.teiid.translator.TranslatorException;
+import org.teiid.translator.TranslatorProperty;
 import org.teiid.translator.TypeFacility;
 import org.teiid.translator.jdbc.AliasModifier;
 import org.teiid.translator.jdbc.FunctionModifier;
@@ -54,8 +63,40 @@ import org.teiid.translator.jdbc.FunctionModifier;
 public class CouchbaseExecutionFactory extends ExecutionFactory<ConnectionFactory, CouchbaseConnection> {
         
     private static final String COUCHBASE = "couchbase"; //$NON-NLS-1$
+    static final String EVENT_DISTRIBUTOR_FACTORY = "teiid/event-distributor-factory"; //$NON-NLS-1$
     
     protected Map<String, FunctionModifier> functionModifiers = new TreeMap<String, FunctionModifier>(String.CASE_INSENSITIVE_ORDER);
+    
+    private boolean streamingResults = false;
+    private boolean asynchronousExecution = false;
+    private boolean rawRowDecoding = false;
+    private int streamingBufferSize = 256;
+    private int useKeysBatchSize = 256;
+    private int useKeysBatchConcurrency = 4;
+    private int keyValueConcurrency = 16;
+    private boolean useBindVariables = false;
+    private boolean usePreparedStatements = false;
+    private int preparedStatementCacheSize = 256;
+    
+    private PreparedStatementCache preparedStatementCache;
+    private boolean keysetPagination = false;
+    private int keysetCursorCacheSize = 1024;
+    private KeysetCursorCache keysetCursorCache;
+    private boolean twoPhaseAggregation = false;
+    private boolean useIndexHints = false;
+    private long schemaDriftInterval = 0;
+    private int schemaDriftSampleSize = 100;
+    private long schemaDriftQueryTimeout = 5000;
+    private SchemaDriftDetector schemaDriftDetector;
+    private final ThreadLocal<ConnectionFactory> importConnectionFactory = new ThreadLocal<>();
+    
+    private final Map<String, Object[]> partitionBounds = Collections.synchronizedMap(new LinkedHashMap<String, Object[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = -5184926218736519403L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object[]> eldest) {
+            return size() > 256;
+        }
+    });
 
 	public CouchbaseExecutionFactory() {
 	    setSupportsSelectDistinct(true);
@@ -68,6 +109,14 @@ public class CouchbaseExecutionFactory extends ExecutionFactory<ConnectionFactor
 	public void start() throws TranslatorException {
 		super.start();
 		
+		synchronized (this) {
+		    // a restarted translator not keep the registrations of the previous start
+		    if(this.schemaDriftDetector != null) {
+		        this.schemaDriftDetector.shutdown();
+		        this.schemaDriftDetector = null;
+		    }
+		}
+		
 		registerFunctionModifier(SourceSystemFunctions.CEILING, new AliasModifier("CEIL"));//$NON-NLS-1$
 		registerFunctionModifier(SourceSystemFunctions.LOG, new AliasModifier("LN"));//$NON-NLS-1$
 		registerFunctionModifier(SourceSystemFunctions.LOG10, new AliasModifier("LOG"));//$NON-NLS-1$
@@ -185,6 +234,32 @@ public class CouchbaseExecutionFactory extends ExecutionFactory<ConnectionFactor
         return new CouchbaseMetadataProcessor();
     }
 
+    @Override
+    public void getMetadata(MetadataFactory metadataFactory, CouchbaseConnection conn) throws TranslatorException {
+        ConnectionFactory factory = this.importConnectionFactory.get();
+        this.importConnectionFactory.remove();
+        super.getMetadata(metadataFactory, conn);
+        if(this.schemaDriftInterval > 0) {
+            CouchbaseMetadataProcessor processor = new CouchbaseMetadataProcessor();
+            PropertiesUtils.setBeanProperties(processor, metadataFactory.getModelProperties(), "importer"); //$NON-NLS-1$
+            getSchemaDriftDetector().register(metadataFactory, processor, factory);
+        }
+    }
+
+    /**
+     * The connection of a metadata import be got without execution context right before the 
+     * {@link #getMetadata(MetadataFactory, CouchbaseConnection)} on the same thread, its factory be 
+     * kept for the schema drift detection of the imported model only. The factories of the queries 
+     * not be used, a query not tell which model it belongs to.
+     */
+    @Override
+    public CouchbaseConnection getConnection(ConnectionFactory factory, ExecutionContext executionContext) throws TranslatorException {
+        if(this.schemaDriftInterval > 0 && factory != null && executionContext == null) {
+            this.importConnectionFactory.set(factory);
+        }
+        return super.getConnection(factory, executionContext);
+    }
+
     @Override
     public boolean supportsAggregatesSum() {
         return true;
@@ -285,26 +360,245 @@ public class CouchbaseExecutionFactory extends ExecutionFactory<ConnectionFactor
         return true;
     }
 
-    public N1QLVisitor getN1QLVisitor() {
-        return new N1QLVisitor(this);
+    @Override
+    public boolean supportsCompareCriteriaEquals() {
+        return true;
     }
 
-    public Object retrieveValue(Class<?> columnType, Object value) {
-        
-        if (value == null) {
-            return null;
+    @Override
+    public boolean supportsInCriteria() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsCompareCriteriaOrdered() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsLikeCriteria() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsIsNullCriteria() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsNotCriteria() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsOrCriteria() {
+        return true;
+    }
+
+    @TranslatorProperty(display="Streaming Results", description="Consume the N1QL rows as they arrive rather than buffer the whole result in memory", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isStreamingResults() {
+        return streamingResults;
+    }
+
+    public void setStreamingResults(boolean streamingResults) {
+        this.streamingResults = streamingResults;
+    }
+
+    @TranslatorProperty(display="Asynchronous Execution", description="Submit N1QL asynchronously and release the engine thread while waiting the rows, the rows be streamed with the streaming buffer size", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isAsynchronousExecution() {
+        return asynchronousExecution;
+    }
+
+    public void setAsynchronousExecution(boolean asynchronousExecution) {
+        this.asynchronousExecution = asynchronousExecution;
+    }
+
+    @TranslatorProperty(display="Raw Row Decoding", description="Decode only the selected fields from the raw bytes of the N1QL rows with a streaming parser, rather than parse every row to a JsonObject", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isRawRowDecoding() {
+        return rawRowDecoding;
+    }
+
+    public void setRawRowDecoding(boolean rawRowDecoding) {
+        this.rawRowDecoding = rawRowDecoding;
+    }
+
+    @TranslatorProperty(display="Streaming Buffer Size", description="Maximum number of rows buffered per execution if streaming results", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public int getStreamingBufferSize() {
+        return streamingBufferSize;
+    }
+
+    public void setStreamingBufferSize(int streamingBufferSize) {
+        this.streamingBufferSize = streamingBufferSize;
+    }
+
+    @TranslatorProperty(display="USE KEYS Batch Size", description="Maximum number of keys per N1QL if a documentID IN criteria, like the key set of a dependent join, be executed as USE KEYS", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public int getUseKeysBatchSize() {
+        return useKeysBatchSize;
+    }
+
+    public void setUseKeysBatchSize(int useKeysBatchSize) {
+        this.useKeysBatchSize = useKeysBatchSize;
+    }
+
+    @TranslatorProperty(display="USE KEYS Batch Concurrency", description="Maximum number of USE KEYS batches executed concurrently", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public int getUseKeysBatchConcurrency() {
+        return useKeysBatchConcurrency;
+    }
+
+    public void setUseKeysBatchConcurrency(int useKeysBatchConcurrency) {
+        this.useKeysBatchConcurrency = useKeysBatchConcurrency;
+    }
+
+    @TranslatorProperty(display="Key-Value Concurrency", description="Maximum number of documents retrieved concurrently via the key-value service if a query only selects documents by their keys", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public int getKeyValueConcurrency() {
+        return keyValueConcurrency;
+    }
+
+    public void setKeyValueConcurrency(int keyValueConcurrency) {
+        this.keyValueConcurrency = keyValueConcurrency;
+    }
+
+    @TranslatorProperty(display="Use Bind Variables", description="Bind the literals in criteria, LIMIT/OFFSET and procedure arguments as positional N1QL parameters rather than inline them", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isUseBindVariables() {
+        return useBindVariables;
+    }
+
+    public void setUseBindVariables(boolean useBindVariables) {
+        this.useBindVariables = useBindVariables;
+    }
+
+    @TranslatorProperty(display="Use Prepared Statements", description="Execute N1QL as named prepared statements, the literals be pulled out as positional parameters so queries with same shape share one plan", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isUsePreparedStatements() {
+        return usePreparedStatements;
+    }
+
+    public void setUsePreparedStatements(boolean usePreparedStatements) {
+        this.usePreparedStatements = usePreparedStatements;
+    }
+
+    @TranslatorProperty(display="Prepared Statement Cache Size", description="Maximum number of prepared statements cached, the least recently used be evicted", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public int getPreparedStatementCacheSize() {
+        return preparedStatementCacheSize;
+    }
+
+    public synchronized void setPreparedStatementCacheSize(int preparedStatementCacheSize) {
+        this.preparedStatementCacheSize = preparedStatementCacheSize;
+        this.preparedStatementCache = null;
+    }
+
+    public synchronized PreparedStatementCache getPreparedStatementCache() {
+        if(this.preparedStatementCache == null) {
+            this.preparedStatementCache = new PreparedStatementCache(this.preparedStatementCacheSize);
         }
+        return this.preparedStatementCache;
+    }
+
+    @TranslatorProperty(display="Keyset Pagination", description="Serve a LIMIT/OFFSET page ordered by documentID with a seek after the last key of the previous page rather than skip the offset rows", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    public void setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+    }
 
-        if (value.getClass().equals(columnType)) {
-            return value;
+    @TranslatorProperty(display="Keyset Cursor Cache Size", description="Maximum number of keyset pagination cursors cached, the least recently used be evicted", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public int getKeysetCursorCacheSize() {
+        return keysetCursorCacheSize;
+    }
+
+    public synchronized void setKeysetCursorCacheSize(int keysetCursorCacheSize) {
+        this.keysetCursorCacheSize = keysetCursorCacheSize;
+        this.keysetCursorCache = null;
+    }
+
+    public synchronized KeysetCursorCache getKeysetCursorCache() {
+        if(this.keysetCursorCache == null) {
+            this.keysetCursorCache = new KeysetCursorCache(this.keysetCursorCacheSize);
         }
-        
-        if(columnType.equals(ClobType.class)) {
-            ClobImpl clob = new ClobImpl(value.toString());
-            return new ClobType(clob);
+        return this.keysetCursorCache;
+    }
+
+    @TranslatorProperty(display="Two Phase Aggregation", description="Execute a aggregate query over a partitioned table as partial aggregates per key range and merge them in the translator", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isTwoPhaseAggregation() {
+        return twoPhaseAggregation;
+    }
+
+    public void setTwoPhaseAggregation(boolean twoPhaseAggregation) {
+        this.twoPhaseAggregation = twoPhaseAggregation;
+    }
+
+    @TranslatorProperty(display="Use Index Hints", description="Add a USE INDEX hint of the imported index which covers all columns the query referenced", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isUseIndexHints() {
+        return useIndexHints;
+    }
+
+    public void setUseIndexHints(boolean useIndexHints) {
+        this.useIndexHints = useIndexHints;
+    }
+
+    @TranslatorProperty(display="Schema Drift Interval", description="The seconds between two rounds of the background schema drift detection, 0 disables the detection", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public long getSchemaDriftInterval() {
+        return schemaDriftInterval;
+    }
+
+    public void setSchemaDriftInterval(long schemaDriftInterval) {
+        this.schemaDriftInterval = schemaDriftInterval;
+    }
+
+    @TranslatorProperty(display="Schema Drift Sample Size", description="Maximum number of the changed documents per table the schema drift detection samples in a round", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public int getSchemaDriftSampleSize() {
+        return schemaDriftSampleSize;
+    }
+
+    public void setSchemaDriftSampleSize(int schemaDriftSampleSize) {
+        this.schemaDriftSampleSize = schemaDriftSampleSize;
+    }
+
+    @TranslatorProperty(display="Schema Drift Query Timeout", description="The server side timeout in milliseconds of a schema drift detection query", advanced=true) //$NON-NLS-1$ //$NON-NLS-2$
+    public long getSchemaDriftQueryTimeout() {
+        return schemaDriftQueryTimeout;
+    }
+
+    public void setSchemaDriftQueryTimeout(long schemaDriftQueryTimeout) {
+        this.schemaDriftQueryTimeout = schemaDriftQueryTimeout;
+    }
+
+    public synchronized SchemaDriftDetector getSchemaDriftDetector() {
+        if(this.schemaDriftDetector == null) {
+            this.schemaDriftDetector = new SchemaDriftDetector(this.schemaDriftInterval, this.schemaDriftSampleSize, this.schemaDriftQueryTimeout);
         }
-        
-        return value;
+        return this.schemaDriftDetector;
+    }
+
+    /**
+     * @return the cached range bounds of the partitioned tables
+     */
+    public Map<String, Object[]> getPartitionBounds() {
+        return this.partitionBounds;
+    }
+
+    /**
+     * The statistics be gathered by the {@code refreshStatistics} procedure be published via the 
+     * {@link EventDistributor}, the same path as {@code SYSADMIN.setTableStats} and {@code SYSADMIN.setColumnStats}.
+     * Be looked up from the JNDI name {@value #EVENT_DISTRIBUTOR_FACTORY}, an embedded server may override it.
+     * @return the {@code EventDistributor}, null if not available
+     */
+    protected EventDistributor getEventDistributor() {
+        try {
+            return ((EventDistributorFactory) new InitialContext().lookup(EVENT_DISTRIBUTOR_FACTORY)).getEventDistributor();
+        } catch (NamingException | ClassCastException e) {
+            LogManager.logDetail(LogConstants.CTX_CONNECTOR, e, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29042, EVENT_DISTRIBUTOR_FACTORY));
+            return null;
+        }
+    }
+
+    public N1QLVisitor getN1QLVisitor() {
+        return new N1QLVisitor(this);
+    }
+
+    public Object retrieveValue(Class<?> columnType, Object value) throws TranslatorException {
+        return ValueConverter.forType(columnType).convert(value);
     }
 
 }
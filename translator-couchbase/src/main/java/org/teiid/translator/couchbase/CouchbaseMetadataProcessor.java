@@ -49,18 +49,32 @@ import static org.teiid.translator.couchbase.CouchbaseProperties.ID;
 import static org.teiid.translator.couchbase.CouchbaseProperties.RESULT;
 import static org.teiid.translator.couchbase.CouchbaseProperties.KEYSPACE;
 import static org.teiid.translator.couchbase.CouchbaseProperties.DOCUMENT;
+import static org.teiid.translator.couchbase.CouchbaseProperties.REFRESHSTATISTICS;
+import static org.teiid.translator.couchbase.CouchbaseProperties.SAMPLESIZE;
+import static org.teiid.translator.couchbase.CouchbaseProperties.TABLENAME;
+import static org.teiid.translator.couchbase.CouchbaseProperties.CARDINALITY;
 import static org.teiid.metadata.BaseColumn.NullType.*;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -70,6 +84,7 @@ import org.teiid.logging.LogConstants;
 import org.teiid.logging.LogManager;
 import org.teiid.metadata.Column;
 import org.teiid.metadata.Datatype;
+import org.teiid.metadata.KeyRecord;
 import org.teiid.metadata.MetadataFactory;
 import org.teiid.metadata.Procedure;
 import org.teiid.metadata.ProcedureParameter;
@@ -84,25 +99,96 @@ import org.teiid.translator.TranslatorProperty.PropertyType;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
 import com.couchbase.client.java.document.json.JsonValue;
+import com.couchbase.client.java.query.N1qlQueryResult;
 import com.couchbase.client.java.query.N1qlQueryRow;
 
 public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseConnection> {
     
     public static final String IS_ARRAY_TABLE = MetadataFactory.COUCHBASE_URI + "ISARRAYTABLE"; //$NON-NLS-1$
     public static final String NAMED_TYPE_PAIR = MetadataFactory.COUCHBASE_URI + "NAMEDTYPEPAIR"; //$NON-NLS-1$
+    public static final String PARTITION_COUNT = MetadataFactory.COUCHBASE_URI + "PARTITIONCOUNT"; //$NON-NLS-1$
+    public static final String PARTITION_CONCURRENCY = MetadataFactory.COUCHBASE_URI + "PARTITIONCONCURRENCY"; //$NON-NLS-1$
+    public static final String PARTITION_COLUMN = MetadataFactory.COUCHBASE_URI + "PARTITIONCOLUMN"; //$NON-NLS-1$
+    
+    private static final String INDEX_KEY = "index_key"; //$NON-NLS-1$
+    private static final String CONDITION = "condition"; //$NON-NLS-1$
+    private static final String IS_PRIMARY = "is_primary"; //$NON-NLS-1$
+    private static final String META_ID = "meta().id"; //$NON-NLS-1$
+    private static final String EQUALS = "="; //$NON-NLS-1$
+    private static final int DEFAULT_SAMPLE_SIZE = 100;
   
     private Integer sampleSize;
     
+    private boolean importStatistics = false;
+    
+    private boolean inferSchema = false;
+    
+    private int importParallelism = 1;
+    
     private String typeNameList; 
     
+    private String schemaCacheDirectory;
+    
+    private boolean adaptiveSampling = false;
+    
+    private long samplingTimeBudget = 10000;
+    
+    private long samplingByteBudget = 16 * 1024 * 1024;
+    
     private Map<String, String> typeNameMap;
+    
+    private SchemaCache schemaCache;
+    
+    /**
+     * The number of the new columns, array tables and type widenings the scan made, 
+     * the adaptive sampling stops once the batches no more change it.
+     */
+    private int schemaChanges;
             
     @Override
     public void process(MetadataFactory mf, CouchbaseConnection conn) throws TranslatorException {
 
         List<String> keyspaces = loadKeyspaces(conn);
-        for(String keyspace : keyspaces) {
-            addTable(mf, conn, conn.getNamespace(), keyspace);  
+        
+        if(this.sampleSize == null || this.sampleSize == 0) {  
+            this.sampleSize = DEFAULT_SAMPLE_SIZE;
+            LogManager.logInfo(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29008, this.sampleSize));
+        }
+        
+        if(this.schemaCacheDirectory != null && !this.schemaCacheDirectory.isEmpty()) {
+            this.schemaCache = new SchemaCache(this.schemaCacheDirectory);
+        }
+        
+        ExecutorService executor = null;
+        if(this.importParallelism > 1) {
+            executor = Executors.newFixedThreadPool(this.importParallelism);
+        }
+        try {
+            List<KeyspaceImport> imports = new ArrayList<>(keyspaces.size());
+            for(String keyspace : keyspaces) {
+                KeyspaceImport keyspaceImport = new KeyspaceImport(conn, conn.getNamespace(), keyspace, executor);
+                if(executor == null) {
+                    keyspaceImport.sample();
+                    addKeyspace(mf, keyspaceImport);
+                } else {
+                    imports.add(keyspaceImport);
+                }
+            }
+            // merge in the order of the keyspaces and types, the naming not depend on which query completes first,
+            // the documents be sampled at most ImportParallelism keyspaces ahead of the merge, so the sampled 
+            // documents be held are bounded by ImportParallelism * types * SampleSize
+            int sampled = 0;
+            for(int i = 0 ; i < imports.size() ; i ++) {
+                for(; sampled < imports.size() && sampled < i + this.importParallelism ; sampled ++) {
+                    imports.get(sampled).sample();
+                }
+                addKeyspace(mf, imports.get(i));
+                imports.set(i, null);
+            }
+        } finally {
+            if(executor != null) {
+                executor.shutdownNow();
+            }
         }
        
         addProcedures(mf, conn);
@@ -141,11 +227,54 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
         return results;
     }
 
+    private void addKeyspace(MetadataFactory mf, KeyspaceImport keyspaceImport) throws TranslatorException {
+        
+        Map<String, Table> typed = null;
+        if(keyspaceImport.cached != null) {
+            // the cached names depend on the keyspaces be merged before, replay only if the scan would give the same names
+            Map<String, String> names = new LinkedHashMap<>();
+            for(String name : keyspaceImport.names) {
+                names.put(name, typedTableName(mf, keyspaceImport.keyspace, name));
+            }
+            typed = names.equals(SchemaCache.typedTables(keyspaceImport.cached)) ? this.schemaCache.replay(mf, keyspaceImport.cached) : null;
+            if(typed == null) {
+                keyspaceImport.sampleDocuments();
+            } else {
+                LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29037, keyspaceImport.keyspace, typed.keySet()));
+                if(this.importStatistics) {
+                    for(Map.Entry<String, Table> entry : typed.entrySet()) {
+                        applyStatistics(new TableStatistics(entry.getValue()), keyspaceImport.counts.get(entry.getKey()));
+                    }
+                }
+            }
+        }
+        
+        if(typed == null) {
+            Set<String> existing = new HashSet<>(mf.getSchema().getTables().keySet());
+            List<Table> tables = addTable(mf, keyspaceImport);
+            typed = new LinkedHashMap<>();
+            for(int i = 0 ; i < tables.size() ; i ++) {
+                typed.put(keyspaceImport.names.get(i), tables.get(i));
+            }
+            if(this.schemaCache != null) {
+                List<Table> created = new ArrayList<>();
+                for(Table table : mf.getSchema().getTables().values()) {
+                    if(!existing.contains(table.getName())) {
+                        created.add(table);
+                    }
+                }
+                this.schemaCache.store(keyspaceImport.cacheKey, keyspaceImport.fingerprint, typed, created);
+            }
+        }
+        
+        addIndexes(mf, new ArrayList<>(typed.values()), get(keyspaceImport.indexes));
+    }
+
     /**
      * Basically, a keyspace be map to a table, keyspace name is the table name, if TranslatorProperty TypeNameList defined, 
      * a keyspace may map to several tables, for example, if the TypeNameList=`default`:`type`, 
-     * then the {@link CouchbaseMetadataProcessor#addTable(MetadataFactory, CouchbaseConnection, namespace, namespace)}
-     * will get all distinct `type` attribute referenced values from keyspace, and use all these values as table name.
+     * then the {@link KeyspaceImport} will get all distinct `type` attribute referenced values from keyspace, 
+     * and use all these values as table name.
      * 
      * If multiple keyspaces has same typed value, for example, like TypeNameList=`default`:`type`,`default2`:`type`, both default and default2 
      * has document defined {"type": "Customer"}, then the default's table name is 'Customer', default2's table name is 'default2_Customer'.
@@ -153,16 +282,101 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
      * Scan row will add columns to table or create sub-table, nested array be map to a separated table.
      * 
      * @param mf - MetadataFactory
-     * @param conn - CouchbaseConnection
-     * @param namespace - couchbase namespace
-     * @param keyspace - couchbase  keyspace
+     * @param keyspaceImport - the results of the queries of the keyspace
+     * @return the tables be mapped from the keyspace, not include the nested array tables
      */
-    private void addTable(MetadataFactory mf, CouchbaseConnection conn, String namespace, String keyspace) {
+    private List<Table> addTable(MetadataFactory mf, KeyspaceImport keyspaceImport) throws TranslatorException {
         
+        String keyspace = keyspaceImport.keyspace;
         String nameInSource = nameInSource(keyspace);
         
-        String typeName = getTypeName(nameInSource);
-        List<String> dataSrcTableList = new ArrayList<>();
+        List<Table> tables = new ArrayList<>();
+        for(String name : keyspaceImport.names) {
+            
+            Table table = mf.addTable(typedTableName(mf, keyspace, name));
+            table.setNameInSource(nameInSource);
+            table.setSupportsUpdate(true);
+            table.setProperty(IS_ARRAY_TABLE, FALSE_VALUE);
+            tables.add(table);
+            
+            mf.addColumn(DOCUMENTID, STRING, table);
+            mf.addPrimaryKey("PK0", Arrays.asList(DOCUMENTID), table); //$NON-NLS-1$
+            
+            if(!name.equals(keyspace)) {
+                String namedTypePair = buildNamedTypePair(keyspaceImport.typeName, name);
+                table.setProperty(NAMED_TYPE_PAIR, namedTypePair);
+            }
+            
+            // scan row
+            TableStatistics statistics = this.importStatistics ? new TableStatistics(table) : null;
+            boolean inferred = keyspaceImport.inferred.contains(name);
+            if(inferred) {
+                LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29034, table.getName(), get(keyspaceImport.documents.get(name)).size()));
+            }
+            List<JsonObject> documents = get(keyspaceImport.documents.get(name));
+            AdaptiveSampler sampler = keyspaceImport.samplers.get(name);
+            while(true) {
+                int changes = this.schemaChanges;
+                for(JsonObject document : documents) {
+                    scanRow(keyspace, nameInSource, document, mf, table, table.getName(), false, new Dimension());
+                    if(statistics != null && !inferred) {
+                        statistics.sample(document);
+                    }
+                }
+                if(sampler == null || sampler.converged(this.schemaChanges - changes)) {
+                    break;
+                }
+                documents = sampler.next();
+            }
+            if(sampler != null) {
+                LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29038, table.getName(), sampler.getSampled(), sampler.getBatches()));
+            }
+            
+            if(statistics != null) {
+                applyStatistics(statistics, keyspaceImport.counts.get(name));
+            }
+        }
+        keyspaceImport.documents.clear();
+        keyspaceImport.samplers.clear();
+        return tables;
+    }
+    
+    private String typedTableName(MetadataFactory mf, String keyspace, String name) {
+        if (mf.getSchema().getTable(name) != null && !name.equals(keyspace)) { // handle multiple keyspaces has same typed table name
+            return keyspace + UNDERSCORE + name;
+        }
+        return name;
+    }
+    
+    /**
+     * Replaces the cached tables of a keyspace, used by the {@link SchemaDriftDetector} to publish the drift 
+     * to the next import.
+     * @return true if the schema cache be updated
+     */
+    boolean updateSchemaCache(String namespace, String keyspace, Map<String, Table> typed, Collection<Table> tables) {
+        if(this.schemaCacheDirectory == null || this.schemaCacheDirectory.isEmpty()) {
+            return false;
+        }
+        int size = this.sampleSize == null || this.sampleSize == 0 ? DEFAULT_SAMPLE_SIZE : this.sampleSize;
+        return new SchemaCache(this.schemaCacheDirectory).update(schemaCacheKey(namespace, keyspace, size), typed, tables);
+    }
+    
+    private String schemaCacheKey(String namespace, String keyspace, int size) {
+        return SchemaCache.key(namespace, keyspace, this.typeNameList, size, this.inferSchema, this.adaptiveSampling, this.samplingTimeBudget, this.samplingByteBudget);
+    }
+    
+    private void applyStatistics(TableStatistics statistics, Future<Long> count) {
+        try {
+            long cardinality = get(count);
+            statistics.apply(cardinality);
+            LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29032, statistics.getTable().getName(), cardinality));
+        } catch (TranslatorException e) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, e.getMessage());
+        }
+    }
+    
+    private List<String> loadTypes(CouchbaseConnection conn, String namespace, String keyspace, String typeName) {
+        List<String> results = new ArrayList<>();
         if(typeName != null) {
             String typeQuery = buildN1QLTypeQuery(typeName, namespace, keyspace);
             LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, typeQuery)); 
@@ -173,53 +387,163 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
                 String type = trimWave(typeName);
                 String value = rowJson.getString(type);
                 if(value != null) {
-                    dataSrcTableList.add(value);
+                    results.add(value);
                 }
             }
         } else {
-            dataSrcTableList.add(keyspace);
+            results.add(keyspace);
         }
+        return results;
+    }
+    
+    private List<JsonObject> loadDocuments(CouchbaseConnection conn, String namespace, String keyspace, String typeName, String name, boolean hasTypeIdentifier, int limit) {
+        List<JsonObject> results = new ArrayList<>();
+        String query = buildN1QLQuery(typeName, name, namespace, keyspace, limit, hasTypeIdentifier);
+        LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, query)); 
+        // the statistics need the values, otherwise only the shape of the documents be read from the raw rows
+        DocumentWalker walker = this.importStatistics ? null : new DocumentWalker(keyspace);
+        Iterator<N1qlQueryRow> result = conn.executeQuery(query).iterator();
+        while(result.hasNext()) {
+            N1qlQueryRow row = result.next(); // result.next() always can not be null
+            JsonObject currentRowJson = walker == null ? row.value().getObject(keyspace) : walker.walk(row.byteValue());
+            if(currentRowJson != null) {
+                results.add(currentRowJson);
+            }
+        }
+        return results;
+    }
+    
+    private List<JsonObject> loadIndexes(CouchbaseConnection conn, String namespace, String keyspace) {
+        
+        List<JsonObject> indexes = new ArrayList<>();
+        String query = buildN1QLIndexes(namespace, keyspace);
+        LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, query)); 
+        N1qlQueryResult result = conn.executeQuery(query);
+        if(!result.finalSuccess()) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29029, keyspace, result.errors()));
+            return indexes;
+        }
+        for(N1qlQueryRow row : result.allRows()) {
+            indexes.add(row.value());
+        }
+        return indexes;
+    }
+    
+    /**
+     * Maps the GSI of a keyspace to the index of the tables be mapped from the keyspace, the index name in 
+     * source is the GSI name. A index be mapped only if all of its keys be mapped to columns of a table:
+     *   1) A index without condition be added to the keyspace table, or to a typed table if the typed 
+     *      attribute is one of the keys.
+     *   2) A partial index be added only to the typed table which its condition equals to the named type pair.
+     * The primary index and the index with expression keys be ignored.
+     *   
+     * @param mf
+     * @param tables - the tables be mapped from the keyspace
+     * @param indexes - the rows of system:indexes
+     */
+    protected void addIndexes(MetadataFactory mf, List<Table> tables, List<JsonObject> indexes) {
         
-        for(String name : dataSrcTableList) {
+        for(JsonObject index : indexes) {
             
-            String tableName = name;
-            if (mf.getSchema().getTable(name) != null && !name.equals(keyspace)) { // handle multiple keyspaces has same typed table name
-                tableName = keyspace + UNDERSCORE + name;
+            String name = index.getString(NAME);
+            JsonArray keys = index.getArray(INDEX_KEY);
+            if(name == null || keys == null || keys.size() == 0 || Boolean.TRUE.equals(index.getBoolean(IS_PRIMARY))) {
+                continue;
             }
             
-            Table table = mf.addTable(tableName);
-            table.setNameInSource(nameInSource);
-            table.setSupportsUpdate(true);
-            table.setProperty(IS_ARRAY_TABLE, FALSE_VALUE);
-            
-            mf.addColumn(DOCUMENTID, STRING, table);
-            mf.addPrimaryKey("PK0", Arrays.asList(DOCUMENTID), table); //$NON-NLS-1$
-            
-            if(!name.equals(keyspace)) {
-                String namedTypePair = buildNamedTypePair(typeName, name);
-                table.setProperty(NAMED_TYPE_PAIR, namedTypePair);
+            String condition = index.getString(CONDITION);
+            for(Table table : tables) {
+                
+                String namedTypePair = table.getProperty(NAMED_TYPE_PAIR, false);
+                String typeName = null;
+                if(namedTypePair != null) {
+                    typeName = namedTypePair.substring(0, namedTypePair.indexOf(WAVE + COLON) + 1);
+                    String typedCondition = typeName + EQUALS + namedTypePair.substring(typeName.length() + 1);
+                    if(condition != null && !normalizeCondition(condition).equals(normalizeCondition(typedCondition))) {
+                        continue;
+                    }
+                } else if(condition != null) {
+                    continue;
+                }
+                
+                List<String> columnNames = new ArrayList<>(keys.size());
+                boolean typedKey = false;
+                for(int i = 0 ; i < keys.size() ; i ++) {
+                    String key = normalizeIndexKey(String.valueOf(keys.get(i)));
+                    typedKey |= key.equals(typeName);
+                    Column column = findColumn(table, key);
+                    if(column == null || columnNames.contains(column.getName())) {
+                        columnNames = null;
+                        break;
+                    }
+                    columnNames.add(column.getName());
+                }
+                if(columnNames == null || (typeName != null && condition == null && !typedKey) || hasIndex(table, name)) {
+                    continue;
+                }
+                KeyRecord record = mf.addIndex(name, true, columnNames, table);
+                record.setNameInSource(nameInSource(name));
+                LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29030, name, table.getName(), columnNames));
             }
-            
-            // scan row
-            boolean hasTypeIdentifier = true;
-            if(dataSrcTableList.size() == 1 && dataSrcTableList.get(0).equals(keyspace)) {
-                hasTypeIdentifier = false;
+        }
+    }
+    
+    private boolean hasIndex(Table table, String name) {
+        for(KeyRecord record : table.getIndexes()) {
+            if(record.getName().equals(name)) {
+                return true;
             }
-            
-            if(this.sampleSize == null || this.sampleSize == 0) {  
-                this.sampleSize = 100; // default sample size is 100
-                LogManager.logInfo(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29008, this.sampleSize));
+        }
+        return false;
+    }
+    
+    /**
+     * @param key - the normalized index key, a path like {@code `a`.`b`} or {@code meta().id}
+     * @return the column of the table which name in source reference the key, null if no such column
+     */
+    private Column findColumn(Table table, String key) {
+        if(key.equalsIgnoreCase(META_ID)) {
+            return table.getColumnByName(DOCUMENTID);
+        }
+        for(Column column : table.getColumns()) {
+            String nameInSource = column.getNameInSource();
+            if(nameInSource != null && nameInSource.substring(nameInSource.indexOf(SOURCE_SEPARATOR) + 1).equals(key)) {
+                return column;
             }
-            
-            String query = buildN1QLQuery(typeName, name, namespace, keyspace, this.sampleSize, hasTypeIdentifier);
-            LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, query)); 
-            Iterator<N1qlQueryRow> result = conn.executeQuery(query).iterator();
-            while(result.hasNext()) {
-                JsonObject row = result.next().value(); // result.next() always can not be null
-                JsonObject currentRowJson = row.getObject(keyspace);
-                scanRow(keyspace, nameInSource(keyspace), currentRowJson, mf, table, table.getName(), false, new Dimension());
-            }            
         }
+        return null;
+    }
+    
+    /**
+     * The index key in system:indexes looks like {@code `Name`}, {@code (`CreditCard`.`Type`)} or 
+     * {@code `Name` DESC}, the enclosing parentheses and the sort order be removed.
+     */
+    static String normalizeIndexKey(String key) {
+        String result = key.trim();
+        if(result.toUpperCase().endsWith(" DESC")) { //$NON-NLS-1$
+            result = result.substring(0, result.length() - 5).trim();
+        } else if(result.toUpperCase().endsWith(" ASC")) { //$NON-NLS-1$
+            result = result.substring(0, result.length() - 4).trim();
+        }
+        while(result.startsWith("(") && result.endsWith(")")) { //$NON-NLS-1$ //$NON-NLS-2$
+            result = result.substring(1, result.length() - 1).trim();
+        }
+        return result.replace("meta().`id`", META_ID); //$NON-NLS-1$
+    }
+    
+    /**
+     * A condition like {@code (`type` = "Customer")} be normalized as {@code `type`='Customer'}.
+     */
+    static String normalizeCondition(String condition) {
+        StringBuilder sb = new StringBuilder();
+        for(char c : condition.toCharArray()) {
+            if(c == '"') {
+                sb.append('\'');
+            } else if(c != '(' && c != ')' && !Character.isWhitespace(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
     }
 
 
@@ -357,6 +681,7 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
                 idx.setUpdatable(false);
             }
             dimension.increment();
+            this.schemaChanges++;
         } 
      
         return table;
@@ -388,12 +713,14 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
             if(nameInSource != null){
                 column.setNameInSource(nameInSource);
             }
+            this.schemaChanges++;
         } else {
             Column column = table.getColumnByName(columnName);
             String existColumnType = column.getDatatype().getName();
             if(!existColumnType.equals(columnType) && !existColumnType.equals(OBJECT) && columnValue != null) {
                 Datatype datatype = mf.getDataTypes().get(OBJECT);
                 column.setDatatype(datatype, true, 0);
+                this.schemaChanges++;
             }
         }
     }
@@ -449,7 +776,7 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
         return sb.toString();
     }
     
-    private String getTypeName(String keyspace) {
+    private synchronized String getTypeName(String keyspace) {
         
         if(this.typeNameList == null) {
             LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29009));
@@ -552,6 +879,16 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
         param.setAnnotation(CouchbasePlugin.Util.getString("getMetadataDocument.keyspace.Annotation")); //$NON-NLS-1$
         param.setNullType(No_Nulls);
         metadataFactory.addProcedureResultSetColumn(RESULT, TypeFacility.RUNTIME_NAMES.BLOB, getMetadataDocument);
+        
+        Procedure refreshStatistics = metadataFactory.addProcedure(REFRESHSTATISTICS);
+        refreshStatistics.setAnnotation(CouchbasePlugin.Util.getString("refreshStatistics.Annotation")); //$NON-NLS-1$
+        param = metadataFactory.addProcedureParameter(KEYSPACE, TypeFacility.RUNTIME_NAMES.STRING, Type.In, refreshStatistics); 
+        param.setAnnotation(CouchbasePlugin.Util.getString("refreshStatistics.keyspace.Annotation")); //$NON-NLS-1$
+        param.setNullType(No_Nulls);
+        param = metadataFactory.addProcedureParameter(SAMPLESIZE, TypeFacility.RUNTIME_NAMES.INTEGER, Type.In, refreshStatistics); 
+        param.setAnnotation(CouchbasePlugin.Util.getString("refreshStatistics.sampleSize.Annotation")); //$NON-NLS-1$
+        metadataFactory.addProcedureResultSetColumn(TABLENAME, TypeFacility.RUNTIME_NAMES.STRING, refreshStatistics); 
+        metadataFactory.addProcedureResultSetColumn(CARDINALITY, TypeFacility.RUNTIME_NAMES.LONG, refreshStatistics); 
     }
 
     /**
@@ -592,6 +929,10 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
         return "SELECT name, namespace_id FROM system:keyspaces WHERE namespace_id = '" + namespace + "'"; //$NON-NLS-1$ //$NON-NLS-2$
     }
     
+    private String buildN1QLIndexes(String namespace, String keyspace) {
+        return "SELECT name, index_key, `condition`, is_primary FROM system:indexes WHERE namespace_id = '" + namespace + "' AND keyspace_id = '" + keyspace + "' AND state = 'online' AND `using` = 'gsi'"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+    
     private String buildN1QLTypeQuery(String typeName, String namespace, String keyspace) {
         StringBuilder sb = new StringBuilder();
         sb.append("SELECT DISTINCT "); //$NON-NLS-1$
@@ -648,6 +989,33 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
         this.sampleSize = sampleSize;
     }
 
+    @TranslatorProperty(display = "ImportStatistics", category = PropertyType.IMPORT, description = "Set the cardinality of the tables by counting the documents, and estimate the distinct values and nulls of the columns from the sampled documents") //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isImportStatistics() {
+        return importStatistics;
+    }
+
+    public void setImportStatistics(boolean importStatistics) {
+        this.importStatistics = importStatistics;
+    }
+
+    @TranslatorProperty(display = "InferSchema", category = PropertyType.IMPORT, description = "Map the schema summary the INFER statement computed on the server rather than sample the documents, the sampling be used if the INFER not available or no flavor match a typed table") //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isInferSchema() {
+        return inferSchema;
+    }
+
+    public void setInferSchema(boolean inferSchema) {
+        this.inferSchema = inferSchema;
+    }
+
+    @TranslatorProperty(display = "ImportParallelism", category = PropertyType.IMPORT, description = "Maximum number of the type discovery, sampling and counting queries executed concurrently during the import, the documents of at most this number of keyspaces be sampled ahead and held in memory at a time") //$NON-NLS-1$ //$NON-NLS-2$
+    public int getImportParallelism() {
+        return importParallelism;
+    }
+
+    public void setImportParallelism(int importParallelism) {
+        this.importParallelism = importParallelism;
+    }
+
     @TranslatorProperty(display = "TypeNameList", category = PropertyType.IMPORT, description = "A comma-separate list of the attributes that the buckets use to specify document types. Each list item must be a bucket name surrounded by back quotes (`), a colon (:), and an attribute name surrounded by back quotes (`).") //$NON-NLS-1$ //$NON-NLS-2$
     public String getTypeNameList() {
         return typeNameList;
@@ -656,6 +1024,209 @@ public class CouchbaseMetadataProcessor implements MetadataProcessor<CouchbaseCo
     public void setTypeNameList(String typeNameList) {
         this.typeNameList = typeNameList;
     }
+
+    @TranslatorProperty(display = "SchemaCacheDirectory", category = PropertyType.IMPORT, description = "A local directory the schema of each keyspace be cached in, the cached schema be reused if the typed values and the shape of a few probe documents not changed") //$NON-NLS-1$ //$NON-NLS-2$
+    public String getSchemaCacheDirectory() {
+        return schemaCacheDirectory;
+    }
+
+    public void setSchemaCacheDirectory(String schemaCacheDirectory) {
+        this.schemaCacheDirectory = schemaCacheDirectory;
+    }
+
+    @TranslatorProperty(display = "AdaptiveSampling", category = PropertyType.IMPORT, description = "Sample the documents in increasing batches spread over the key space until the schema converged, SampleSize be the maximum number of documents per type") //$NON-NLS-1$ //$NON-NLS-2$
+    public boolean isAdaptiveSampling() {
+        return adaptiveSampling;
+    }
+
+    public void setAdaptiveSampling(boolean adaptiveSampling) {
+        this.adaptiveSampling = adaptiveSampling;
+    }
+
+    @TranslatorProperty(display = "SamplingTimeBudget", category = PropertyType.IMPORT, description = "The maximum milliseconds the adaptive sampling spends on a type") //$NON-NLS-1$ //$NON-NLS-2$
+    public long getSamplingTimeBudget() {
+        return samplingTimeBudget;
+    }
+
+    public void setSamplingTimeBudget(long samplingTimeBudget) {
+        this.samplingTimeBudget = samplingTimeBudget;
+    }
+
+    @TranslatorProperty(display = "SamplingByteBudget", category = PropertyType.IMPORT, description = "The maximum bytes of the documents the adaptive sampling reads for a type") //$NON-NLS-1$ //$NON-NLS-2$
+    public long getSamplingByteBudget() {
+        return samplingByteBudget;
+    }
+
+    public void setSamplingByteBudget(long samplingByteBudget) {
+        this.samplingByteBudget = samplingByteBudget;
+    }
+    
+    /**
+     * The queries of the import of a keyspace, the type discovery, the INFER, the sampling, the counting
+     * and the index lookup be submitted to the executor, so the queries of all keyspaces and types run 
+     * concurrently. Without a executor the queries be executed in the caller thread.
+     * 
+     * Only the query results be held, the results be merged into the {@code MetadataFactory} in the
+     * order of the keyspaces and types by the caller, so the naming is stable.
+     * 
+     * With a {@link SchemaCache} the sampling be skipped if the cached schema of the keyspace still 
+     * matches the fingerprint computed from a few probe documents of each type.
+     */
+    private class KeyspaceImport {
+        
+        private final CouchbaseConnection conn;
+        private final String namespace;
+        private final String keyspace;
+        private final String typeName;
+        private final ExecutorService executor;
+        
+        private final Future<List<String>> types;
+        private final Future<JsonArray> flavors;
+        private final Future<List<JsonObject>> indexes;
+        
+        private List<String> names;
+        private boolean hasTypeIdentifier;
+        private String cacheKey;
+        private String fingerprint;
+        private JsonObject cached;
+        private final Set<String> inferred = new HashSet<>();
+        private final Map<String, Future<List<JsonObject>>> documents = new HashMap<>();
+        private final Map<String, Future<Long>> counts = new HashMap<>();
+        private final Map<String, AdaptiveSampler> samplers = new HashMap<>();
+        
+        KeyspaceImport(final CouchbaseConnection conn, final String namespace, final String keyspace, ExecutorService executor) {
+            this.conn = conn;
+            this.namespace = namespace;
+            this.keyspace = keyspace;
+            this.typeName = getTypeName(nameInSource(keyspace));
+            this.executor = executor;
+            
+            this.types = submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return loadTypes(conn, namespace, keyspace, typeName);
+                }});
+            this.flavors = !inferSchema ? null : submit(new Callable<JsonArray>() {
+                @Override
+                public JsonArray call() throws Exception {
+                    return InferredSchema.infer(conn, namespace, keyspace, sampleSize);
+                }});
+            this.indexes = submit(new Callable<List<JsonObject>>() {
+                @Override
+                public List<JsonObject> call() throws Exception {
+                    return loadIndexes(conn, namespace, keyspace);
+                }});
+        }
+        
+        /**
+         * Submits the probing, sampling and counting queries per type, must be called after the types be discovered.
+         */
+        void sample() throws TranslatorException {
+            
+            this.names = get(this.types);
+            this.hasTypeIdentifier = !(this.names.size() == 1 && this.names.get(0).equals(this.keyspace));
+            
+            if(schemaCache != null) {
+                final boolean hasTypeIdentifier = this.hasTypeIdentifier;
+                List<Future<List<JsonObject>>> futures = new ArrayList<>(this.names.size());
+                for(final String name : this.names) {
+                    futures.add(submit(new Callable<List<JsonObject>>() {
+                        @Override
+                        public List<JsonObject> call() throws Exception {
+                            return loadDocuments(conn, namespace, keyspace, typeName, name, hasTypeIdentifier, Math.min(SchemaCache.PROBE_SIZE, sampleSize));
+                        }}));
+                }
+                List<List<JsonObject>> probes = new ArrayList<>(futures.size());
+                for(Future<List<JsonObject>> future : futures) {
+                    probes.add(get(future));
+                }
+                this.cacheKey = schemaCacheKey(this.namespace, this.keyspace, sampleSize);
+                this.fingerprint = SchemaCache.fingerprint(this.names, probes);
+                this.cached = schemaCache.load(this.cacheKey, this.fingerprint);
+            }
+            
+            if(this.cached == null) {
+                sampleDocuments();
+            }
+            
+            if(importStatistics) {
+                for(String name : this.names) {
+                    final String namedTypePair = this.hasTypeIdentifier ? buildNamedTypePair(this.typeName, name) : null;
+                    this.counts.put(name, submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            return TableStatistics.count(conn, nameInSource(keyspace), namedTypePair);
+                        }}));
+                }
+            }
+        }
+        
+        /**
+         * Submits the sampling of the types which the schema not cached, or not inferred.
+         */
+        void sampleDocuments() throws TranslatorException {
+            
+            JsonArray inferredFlavors = this.flavors == null ? null : get(this.flavors);
+            final boolean hasTypeIdentifier = this.hasTypeIdentifier;
+            
+            for(final String name : this.names) {
+                List<JsonObject> exemplars = inferredFlavors == null ? Collections.<JsonObject>emptyList() : InferredSchema.documents(inferredFlavors, hasTypeIdentifier ? this.typeName : null, name);
+                if(!exemplars.isEmpty()) {
+                    this.inferred.add(name);
+                    this.documents.put(name, completed(exemplars));
+                } else if(adaptiveSampling) {
+                    String typedPredicate = hasTypeIdentifier ? this.typeName + EQUALS + QUOTE + name + QUOTE : null;
+                    final AdaptiveSampler sampler = new AdaptiveSampler(this.conn, this.namespace, this.keyspace, typedPredicate, sampleSize, samplingTimeBudget, samplingByteBudget, new Random());
+                    this.samplers.put(name, sampler);
+                    this.documents.put(name, submit(new Callable<List<JsonObject>>() {
+                        @Override
+                        public List<JsonObject> call() throws Exception {
+                            return sampler.next();
+                        }}));
+                } else {
+                    this.documents.put(name, submit(new Callable<List<JsonObject>>() {
+                        @Override
+                        public List<JsonObject> call() throws Exception {
+                            return loadDocuments(conn, namespace, keyspace, typeName, name, hasTypeIdentifier, sampleSize);
+                        }}));
+                }
+            }
+        }
+        
+        private <T> Future<T> submit(Callable<T> task) {
+            FutureTask<T> future = new FutureTask<>(task);
+            if(this.executor == null) {
+                future.run();
+            } else {
+                this.executor.execute(future);
+            }
+            return future;
+        }
+        
+        private <T> Future<T> completed(final T value) {
+            FutureTask<T> future = new FutureTask<>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return value;
+                }});
+            future.run();
+            return future;
+        }
+    }
+    
+    private static <T> T get(Future<T> future) throws TranslatorException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranslatorException(e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof TranslatorException) {
+                throw (TranslatorException) e.getCause();
+            }
+            throw new TranslatorException(e.getCause());
+        }
+    }
     
     /**
      * The dimension of nested array, a dimension is a hint of nested array table name, and index name.
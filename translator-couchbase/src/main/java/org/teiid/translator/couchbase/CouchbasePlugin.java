@@ -49,6 +49,34 @@ public class CouchbasePlugin {
         TEIID29013,
         TEIID29014,
         TEIID29015,
-        TEIID29016
+        TEIID29016,
+        TEIID29017,
+        TEIID29018,
+        TEIID29019,
+        TEIID29020,
+        TEIID29021,
+        TEIID29022,
+        TEIID29023,
+        TEIID29024,
+        TEIID29025,
+        TEIID29026,
+        TEIID29027,
+        TEIID29028,
+        TEIID29029,
+        TEIID29030,
+        TEIID29031,
+        TEIID29032,
+        TEIID29033,
+        TEIID29034,
+        TEIID29035,
+        TEIID29036,
+        TEIID29037,
+        TEIID29038,
+        TEIID29039,
+        TEIID29040,
+        TEIID29041,
+        TEIID29042,
+        TEIID29043,
+        TEIID29044
     }
 }
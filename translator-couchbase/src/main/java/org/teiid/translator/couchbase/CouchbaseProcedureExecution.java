@@ -31,15 +31,23 @@ import static org.teiid.translator.couchbase.CouchbaseProperties.SAVEDOCUMENT;
 import static org.teiid.translator.couchbase.CouchbaseProperties.DELETEDOCUMENT;
 import static org.teiid.translator.couchbase.CouchbaseProperties.ID;
 import static org.teiid.translator.couchbase.CouchbaseProperties.RESULT;
+import static org.teiid.translator.couchbase.CouchbaseProperties.REFRESHSTATISTICS;
+import static org.teiid.translator.couchbase.CouchbaseProperties.TABLENAME;
+import static org.teiid.translator.couchbase.CouchbaseProperties.CARDINALITY;
+import static org.teiid.translator.couchbase.CouchbaseProperties.WAVE;
+import static org.teiid.translator.couchbase.CouchbaseProperties.TRUE_VALUE;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.IS_ARRAY_TABLE;
+import static org.teiid.language.SQLConstants.Tokens.COMMA;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.teiid.core.types.BlobImpl;
 import org.teiid.core.types.BlobType;
@@ -47,17 +55,23 @@ import org.teiid.core.types.ClobImpl;
 import org.teiid.core.types.ClobType;
 import org.teiid.core.types.InputStreamFactory;
 import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.events.EventDistributor;
 import org.teiid.language.Call;
 import org.teiid.logging.LogConstants;
 import org.teiid.logging.LogManager;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.ColumnStats;
 import org.teiid.metadata.RuntimeMetadata;
+import org.teiid.metadata.Table;
 import org.teiid.translator.DataNotAvailableException;
 import org.teiid.translator.ExecutionContext;
 import org.teiid.translator.ProcedureExecution;
 import org.teiid.translator.TranslatorException;
 
+import com.couchbase.client.java.document.RawJsonDocument;
 import com.couchbase.client.java.document.json.JsonObject;
-import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.DefaultAsyncN1qlQueryRow;
+import com.couchbase.client.java.query.DefaultN1qlQueryRow;
 import com.couchbase.client.java.query.N1qlQueryRow;
 
 public class CouchbaseProcedureExecution extends CouchbaseExecution implements ProcedureExecution {
@@ -65,7 +79,6 @@ public class CouchbaseProcedureExecution extends CouchbaseExecution implements P
     private final Call call;
     
     private N1QLVisitor visitor;
-    private Iterator<N1qlQueryRow> results;
     boolean isText = false;
 
     protected CouchbaseProcedureExecution(CouchbaseExecutionFactory executionFactory, Call call, ExecutionContext executionContext, RuntimeMetadata metadata, CouchbaseConnection connection) {
@@ -76,6 +89,16 @@ public class CouchbaseProcedureExecution extends CouchbaseExecution implements P
     @Override
     public void execute() throws TranslatorException {
         
+        String procName = this.call.getProcedureName();
+        if((procName.equalsIgnoreCase(GETDOCUMENT) || procName.equalsIgnoreCase(GETTEXTDOCUMENT)) && executeKeyValue()) {
+            return;
+        }
+        
+        if(procName.equalsIgnoreCase(REFRESHSTATISTICS)) {
+            executeRefreshStatistics();
+            return;
+        }
+        
         this.visitor = this.executionFactory.getN1QLVisitor();
         this.visitor.append(call);
         String sql = this.visitor.toString();
@@ -85,15 +108,96 @@ public class CouchbaseProcedureExecution extends CouchbaseExecution implements P
             this.isText = true;
         }
         
-        N1qlQueryResult queryResult = connection.executeQuery(sql);
-        this.results = queryResult.iterator();
+        executeN1QL(sql, this.visitor.getParameters());
+    }
+
+    /**
+     * Retrieves the single document via the key-value service rather than N1QL {@code USE PRIMARY KEYS},
+     * the document be wrapped as the row the N1QL returns, so the rows be handled the same in {@link #next()}.
+     * 
+     * @return false if the document can not be retrieved via the key-value service, the N1QL be used 
+     */
+    private boolean executeKeyValue() {
+        
+        Object id = this.call.getArguments().get(0).getArgumentValue().getValue();
+        Object keyspace = this.call.getArguments().get(1).getArgumentValue().getValue();
+        if(!(id instanceof String) || keyspace == null || !keyspace.equals(this.connection.getKeyspaceName())) {
+            return false;
+        }
+        
+        RawJsonDocument document = null;
+        try {
+            document = this.connection.getDocument((String)id);
+        } catch (RuntimeException e) {
+            LogManager.logDetail(LogConstants.CTX_CONNECTOR, e, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29020, id, keyspace));
+            return false;
+        }
+        LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29019, this.call, id, keyspace));
+        
+        List<N1qlQueryRow> rows = new ArrayList<>(1);
+        if(document != null) {
+            // {"id":"<id>","result":<document>} for text document, otherwise {"result":<document>}
+            StringBuilder sb = new StringBuilder();
+            if(this.call.getProcedureName().equalsIgnoreCase(GETTEXTDOCUMENT)) {
+                String idJson = JsonObject.create().put(ID, document.id()).toString();
+                sb.append(idJson, 0, idJson.length() - 1).append(COMMA);
+            } else {
+                sb.append("{"); //$NON-NLS-1$
+            }
+            sb.append("\"").append(RESULT).append("\":").append(document.content()).append("}"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            rows.add(new DefaultN1qlQueryRow(new DefaultAsyncN1qlQueryRow(sb.toString().getBytes(StandardCharsets.UTF_8))));
+        }
+        setRows(rows);
+        return true;
+    }
+
+    /**
+     * Gathers the statistics of the tables mapped from the keyspace, the statistics be published via the 
+     * {@link EventDistributor} rather than set on the runtime metadata, so the planner use them without 
+     * a reimport. Returns a row per table.
+     */
+    private void executeRefreshStatistics() throws TranslatorException {
+        
+        String keyspace = (String) this.call.getArguments().get(0).getArgumentValue().getValue();
+        Object sampleSize = this.call.getArguments().get(1).getArgumentValue().getValue();
+        int size = sampleSize == null ? 100 : ((Number) sampleSize).intValue();
+        
+        EventDistributor distributor = this.executionFactory.getEventDistributor();
+        if(distributor == null) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29044, keyspace));
+        }
+        String vdbName = this.executionContext.getVdbName();
+        String vdbVersion = String.valueOf(this.executionContext.getVdbVersion());
+        
+        List<N1qlQueryRow> rows = new ArrayList<>();
+        for(Table table : this.call.getMetadataObject().getParent().getTables().values()) {
+            if(!(WAVE + keyspace + WAVE).equals(table.getNameInSource()) || TRUE_VALUE.equals(table.getProperty(IS_ARRAY_TABLE, false))) {
+                continue;
+            }
+            TableStatistics statistics = new TableStatistics(table);
+            long cardinality = statistics.count(this.connection);
+            if(size > 0) {
+                statistics.sample(this.connection, size);
+            }
+            if(distributor != null) {
+                String schemaName = table.getParent().getName();
+                distributor.setTableStats(vdbName, vdbVersion, schemaName, table.getName(), statistics.getTableStats(cardinality));
+                for(Map.Entry<Column, ColumnStats> entry : statistics.getColumnStats(cardinality).entrySet()) {
+                    distributor.setColumnStats(vdbName, vdbVersion, schemaName, table.getName(), entry.getKey().getName(), entry.getValue());
+                }
+            }
+            LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29032, table.getName(), cardinality));
+            String json = JsonObject.create().put(TABLENAME, table.getName()).put(CARDINALITY, cardinality).toString();
+            rows.add(new DefaultN1qlQueryRow(new DefaultAsyncN1qlQueryRow(json.getBytes(StandardCharsets.UTF_8))));
+        }
+        setRows(rows);
     }
 
     @Override
     public List<?> next() throws TranslatorException, DataNotAvailableException {
 
-        if(this.results != null && this.results.hasNext()) {
-            final N1qlQueryRow row = this.results.next();
+        final N1qlQueryRow row = nextRow();
+        if(row != null) {
             String procName = this.call.getProcedureName();
             if(procName.equalsIgnoreCase(GETTEXTDOCUMENTS) || procName.equalsIgnoreCase(GETTEXTDOCUMENT)) {
                 JsonObject json = row.value();
@@ -123,6 +227,12 @@ public class CouchbaseProcedureExecution extends CouchbaseExecution implements P
                 ArrayList<Object> result = new ArrayList<>(1);
                 result.add(this.executionFactory.retrieveValue(ClobType.class, JsonObject.create().put(RESULT, "SUCCESS"))); //$NON-NLS-1$
                 return result;
+            } else if(procName.equalsIgnoreCase(REFRESHSTATISTICS)) {
+                JsonObject json = row.value();
+                ArrayList<Object> result = new ArrayList<>(2);
+                result.add(this.executionFactory.retrieveValue(String.class, json.get(TABLENAME)));
+                result.add(this.executionFactory.retrieveValue(Long.class, json.get(CARDINALITY)));
+                return result;
             }
         }
         
@@ -136,12 +246,13 @@ public class CouchbaseProcedureExecution extends CouchbaseExecution implements P
     
     @Override
     public void cancel() throws TranslatorException {
+        cancelN1QL();
         close();
     }
     
     @Override
     public void close() {
-        this.results = null;
+        closeResults();
         this.isText = false;
     }
 
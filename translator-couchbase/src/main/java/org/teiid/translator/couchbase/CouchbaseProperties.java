@@ -58,12 +58,16 @@ public interface CouchbaseProperties {
     String DELETEDOCUMENT = "deleteDocument"; //$NON-NLS-1$
     String GETMETADATADOCUMENT  = "getMetadataDocument"; //$NON-NLS-1$
     String GETTEXTMETADATADOCUMENT  = "getTextMetadataDocument"; //$NON-NLS-1$
+    String REFRESHSTATISTICS = "refreshStatistics"; //$NON-NLS-1$
     
     // Procedure Parameter Name
     String ID = "id"; //$NON-NLS-1$
     String RESULT = "result"; //$NON-NLS-1$
     String KEYSPACE = "keyspace"; //$NON-NLS-1$
     String DOCUMENT = "document"; //$NON-NLS-1$
+    String SAMPLESIZE = "sampleSize"; //$NON-NLS-1$
+    String TABLENAME = "tableName"; //$NON-NLS-1$
+    String CARDINALITY = "cardinality"; //$NON-NLS-1$
     
     String N1QL_COLUMN_ALIAS_PREFIX = "$cb_c"; //$NON-NLS-1$
     String N1QL_TABLE_ALIAS_PREFIX = "$cb_t"; //$NON-NLS-1$
@@ -21,14 +21,21 @@
  */
 package org.teiid.translator.couchbase;
 
+import static org.teiid.language.SQLConstants.Tokens.COMMA;
+import static org.teiid.translator.couchbase.CouchbaseProperties.ID;
 import static org.teiid.translator.couchbase.CouchbaseProperties.PLACEHOLDER;
+import static org.teiid.translator.couchbase.CouchbaseProperties.RESULT;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.language.Condition;
+import org.teiid.language.LanguageUtil;
 import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
 import org.teiid.logging.LogConstants;
 import org.teiid.logging.LogManager;
 import org.teiid.metadata.RuntimeMetadata;
@@ -37,17 +44,31 @@ import org.teiid.translator.ExecutionContext;
 import org.teiid.translator.ResultSetExecution;
 import org.teiid.translator.TranslatorException;
 
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
-import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.DefaultAsyncN1qlQueryRow;
 import com.couchbase.client.java.query.N1qlQueryRow;
 
+import rx.Observable;
+import rx.functions.Func1;
+
 public class CouchbaseQueryExecution extends CouchbaseExecution implements ResultSetExecution {
     
 	private QueryExpression command;
 	private Class<?>[] expectedTypes;
+	private ValueConverter[] converters;
 	
 	private N1QLVisitor visitor;
-	private Iterator<N1qlQueryRow> results;
+	private volatile KeyValueLookup lookup;
+	private boolean documentRetrieved;
+	private String[] resultFields;
+	private N1QLRowDecoder rowDecoder;
+	private KeysetPagination keyset;
+	private PartitionedAggregation aggregation;
+	private Iterator<List<?>> mergedRows;
+	private String[] partialFields;
 	
 	public CouchbaseQueryExecution(
 			CouchbaseExecutionFactory executionFactory,
@@ -56,69 +77,240 @@ public class CouchbaseQueryExecution extends CouchbaseExecution implements Resul
 		super(executionFactory, executionContext, metadata, connection);
 		this.command = command;
 		this.expectedTypes = command.getColumnTypes();
+		this.converters = ValueConverter.forTypes(this.expectedTypes);
 	}
 
 	@Override
 	public void execute() throws TranslatorException {
+	    
+	    KeyValueLookup lookup = KeyValueLookup.plan(this.command, this.connection.getKeyspaceName());
+	    if(lookup != null) {
+	        executeKeyValue(lookup);
+	        return;
+	    }
+	    executeQuery();
+	}
+	
+	private void executeQuery() throws TranslatorException {
+	    
+	    KeyRangePartitioner partitioner = KeyRangePartitioner.plan(this.command);
+	    if(partitioner != null && !PartitionedAggregation.isAggregate(partitioner.getSelect()) && executePartitioned(partitioner, null)) {
+	        return;
+	    } else if(partitioner != null && this.executionFactory.isTwoPhaseAggregation()) {
+	        PartitionedAggregation aggregation = PartitionedAggregation.plan(partitioner.getSelect());
+	        if(aggregation != null && executePartitioned(partitioner, aggregation)) {
+	            return;
+	        }
+	    }
+	    
+	    if(this.executionFactory.isKeysetPagination()) {
+	        String scope = this.executionContext == null ? null : this.executionContext.getConnectionId();
+	        this.keyset = KeysetPagination.plan(this.command, this.executionFactory.getKeysetCursorCache(), scope);
+	        if(this.keyset != null && this.keyset.rewrite()) {
+	            LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29026, this.keyset.getOffset()));
+	        }
+	    }
+	    
 		this.visitor = this.executionFactory.getN1QLVisitor();
 		this.visitor.append(this.command);
 		String sql = this.visitor.toString();
 		LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29001, sql));
-		N1qlQueryResult queryResult = connection.executeQuery(sql);
-		this.results = queryResult.iterator();
+		bindResultFields();
+		executeN1QL(sql, this.visitor.getParameters(), this.visitor.getUseKeysIndex());
+	}
+
+	/**
+	 * Retrieves the documents of a key only query via a parallel bulk key-value get, at most 
+	 * {@code KeyValueConcurrency} gets be in flight, the documents be consumed as they arrive. 
+	 * Returns without waiting, if the get failed before any document retrieved, the N1QL be 
+	 * executed by the {@link #next()} instead.
+	 */
+	private void executeKeyValue(KeyValueLookup lookup) {
+	    
+	    LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29021, this.command, lookup.getKeys()));
+	    
+	    Observable<AsyncN1qlQueryRow> rows = Observable.from(lookup.getKeys()).flatMap(new Func1<String, Observable<RawJsonDocument>>() {
+	        @Override
+	        public Observable<RawJsonDocument> call(String id) {
+	            return connection.getAsyncDocument(id);
+	        }}, Math.max(1, this.executionFactory.getKeyValueConcurrency())).map(new Func1<RawJsonDocument, AsyncN1qlQueryRow>() {
+	        @Override
+	        public AsyncN1qlQueryRow call(RawJsonDocument document) {
+	            // {"id":"<id>","result":<document>}, the document be parsed once by the row
+	            String idJson = JsonObject.create().put(ID, document.id()).toString();
+	            StringBuilder sb = new StringBuilder();
+	            sb.append(idJson, 0, idJson.length() - 1).append(COMMA);
+	            sb.append("\"").append(RESULT).append("\":").append(document.content()).append("}"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	            return new DefaultAsyncN1qlQueryRow(sb.toString().getBytes(StandardCharsets.UTF_8));
+	        }});
+	    
+	    this.lookup = lookup;
+	    openRows(rows);
+	}
+	
+	private List<?> nextDocument(KeyValueLookup keyValueLookup) throws TranslatorException, DataNotAvailableException {
+	    while(true) {
+	        N1qlQueryRow row = null;
+	        try {
+	            row = nextRow();
+	        } catch (TranslatorException e) {
+	            if(this.documentRetrieved) {
+	                throw e;
+	            }
+	            // no document retrieved yet, the N1QL be used instead
+	            LogManager.logDetail(LogConstants.CTX_CONNECTOR, e, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29022, keyValueLookup.getKeys()));
+	            closeResults();
+	            this.lookup = null;
+	            executeQuery();
+	            return next();
+	        }
+	        if(row == null) {
+	            return null;
+	        }
+	        this.documentRetrieved = true;
+	        JsonObject json = row.value();
+	        Object document = json.get(RESULT);
+	        List<Object> values = keyValueLookup.project(json.getString(ID), document instanceof JsonObject ? (JsonObject) document : null);
+	        if(values == null) {
+	            continue;
+	        }
+	        for(int i = 0 ; i < expectedTypes.length ; i ++) {
+	            values.set(i, this.converters[i].convert(values.get(i)));
+	        }
+	        return values;
+	    }
+	}
+
+	/**
+	 * Executes a full scan of a partitioned table as concurrent key range N1QL, or the partial aggregate
+	 * of each key range if the aggregation is not null.
+	 * @return false if the table have too few values to be split, the single N1QL be used
+	 */
+	private boolean executePartitioned(KeyRangePartitioner partitioner, PartitionedAggregation aggregation) throws TranslatorException {
+	    
+	    Object[] bounds = partitioner.getBounds(this.connection, this.executionFactory.getPartitionBounds());
+	    if(bounds.length == 0) {
+	        return false;
+	    }
+	    
+	    Select select = aggregation == null ? partitioner.getSelect() : aggregation.getPartialSelect();
+	    Condition where = select.getWhere();
+	    List<String> statements = new ArrayList<>(bounds.length + 1);
+	    List<JsonArray> parameters = new ArrayList<>(bounds.length + 1);
+	    for(Condition range : partitioner.getRanges(bounds)) {
+	        select.setWhere(LanguageUtil.combineCriteria(where, range));
+	        N1QLVisitor partitionVisitor = this.executionFactory.getN1QLVisitor();
+	        partitionVisitor.append(select);
+	        statements.add(partitionVisitor.toString());
+	        parameters.add(partitionVisitor.getParameters());
+	        if(this.visitor == null) {
+	            this.visitor = partitionVisitor;
+	        }
+	    }
+	    select.setWhere(where);
+	    
+	    LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29027, statements.size(), partitioner.getConcurrency(), statements));
+	    if(aggregation != null) {
+	        this.aggregation = aggregation;
+	        this.partialFields = this.visitor.getResultFields().toArray(new String[0]);
+	    } else {
+	        bindResultFields();
+	    }
+	    executeN1QL(statements, parameters, partitioner.getConcurrency());
+	    return true;
 	}
 
 	@Override
 	public List<?> next() throws TranslatorException, DataNotAvailableException {
 	    
-	    if (this.results != null && this.results.hasNext()) {
-	        N1qlQueryRow queryRow = this.results.next();
-	        if(queryRow != null) {
-	            List<Object> row = new ArrayList<>(expectedTypes.length);
-	            JsonObject json = queryRow.value();
-	            
-	            for(int i = 0 ; i < expectedTypes.length ; i ++){
-	                String columnName = null;
-	                Object value = null;
-	                int cursor = i + 1;
-	                
-	                // column without reference, like 'select col, count(*) from table'
-	                if(cursor <= this.visitor.getSelectColumns().size()){
-	                    columnName = this.visitor.getSelectColumns().get(i);
-	                    value = json.get(columnName); 
-	                }
-	                
-	                // column with alias, like 'select col AS c_1 from table' 
-	                if(value == null && (cursor <= this.visitor.getSelectColumnReferences().size()) && this.visitor.getSelectColumnReferences().get(i) != null) {
-	                    columnName = this.visitor.getSelectColumnReferences().get(i);
-	                    value = json.get(columnName);
-	                }
-	                
-	                // column without reference and alias
-	                if(value == null && json.getNames().contains(buildPlaceholder(1))) {
-	                    columnName = buildPlaceholder(1);
-	                    value = json.get(columnName);
-	                }
-
-	                row.add(this.executionFactory.retrieveValue(expectedTypes[i], value));
-	            }
-	            return row;
+	    if(this.aggregation != null) {
+	        mergePartials();
+	    }
+	    
+	    if(this.mergedRows != null) {
+	        return this.mergedRows.hasNext() ? this.mergedRows.next() : null;
+	    }
+	    
+	    // the lookup be cleared by a cancel from another thread
+	    KeyValueLookup keyValueLookup = this.lookup;
+	    if(keyValueLookup != null) {
+	        return nextDocument(keyValueLookup);
+	    }
+	    
+	    List<Object> row = null;
+	    Object[] values = null;
+	    N1qlQueryRow queryRow = nextRow();
+	    if (queryRow != null && this.rowDecoder != null) {
+	        values = this.rowDecoder.decode(queryRow.byteValue());
+	    } else if (queryRow != null) {
+	        JsonObject json = queryRow.value();
+	        values = new Object[expectedTypes.length];
+	        for(int i = 0 ; i < expectedTypes.length ; i ++){
+	            values[i] = json.get(this.resultFields[i]);
 	        }
 	    } 
-		return null;
+	    if (values != null) {
+	        row = new ArrayList<>(expectedTypes.length);
+	        for(int i = 0 ; i < expectedTypes.length ; i ++){
+	            row.add(this.converters[i].convert(values[i]));
+	        }
+	    }
+	    
+	    if(this.keyset != null && values != null) {
+	        this.keyset.observe(values);
+	    } else if(this.keyset != null) {
+	        this.keyset.store();
+	    }
+		return row;
+	}
+	
+	/**
+	 * Consumes the partial aggregates of all partitions, the merged rows be returned after.
+	 */
+	private void mergePartials() throws TranslatorException, DataNotAvailableException {
+	    N1qlQueryRow queryRow = null;
+	    while((queryRow = nextRow()) != null) {
+	        JsonObject json = queryRow.value();
+	        Object[] values = new Object[this.partialFields.length];
+	        for(int i = 0 ; i < values.length ; i ++) {
+	            values[i] = json.get(this.partialFields[i]);
+	        }
+	        this.aggregation.accumulate(values, this.converters);
+	    }
+	    this.mergedRows = this.aggregation.getResults(this.converters).iterator();
+	    this.aggregation = null;
+	}
+	
+	/**
+	 * Binds each select column to its field in the N1QL result once, a row be projected with 
+	 * one lookup per column.
+	 */
+	private void bindResultFields() {
+	    List<String> fields = this.visitor.getResultFields();
+	    this.resultFields = new String[expectedTypes.length];
+	    for(int i = 0 ; i < expectedTypes.length ; i ++) {
+	        this.resultFields[i] = i < fields.size() ? fields.get(i) : PLACEHOLDER + (i + 1);
+	    }
+	    if(this.executionFactory.isRawRowDecoding()) {
+	        this.rowDecoder = new N1QLRowDecoder(this.resultFields);
+	    }
 	}
-
-    private String buildPlaceholder(int i) {
-        return PLACEHOLDER + i; 
-    }
     
     @Override
 	public void close() {
-	    this.results = null;
+	    if(this.keyset != null) {
+	        this.keyset.store();
+	        this.keyset = null;
+	    }
+	    this.mergedRows = null;
+	    this.lookup = null;
+	    this.aggregation = null;
+	    closeResults();
 	}
 
 	@Override
 	public void cancel() throws TranslatorException {
+	    cancelN1QL();
 		close();
 	}
 }
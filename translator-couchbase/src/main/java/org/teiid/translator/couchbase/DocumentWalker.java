@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import org.teiid.translator.couchbase.JsonTokenizer.Token;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Reads the shape of a sampled document from the raw bytes of a N1QL row, for the metadata 
+ * scan, rather than decode the row into a {@code JsonObject} with all of its values.
+ * 
+ * The row be consumed token by token with a {@link JsonTokenizer}, the string values be skipped 
+ * without decoding, a scalar value be replaced by a shared exemplar of its type, like {@code ""} 
+ * for a string or {@code 0} for an integer, the scan only uses the type of a value. The attribute 
+ * names be interned in a trie of the attribute paths, a name seen before at the same path be matched 
+ * against the bytes and not be decoded again, so the names of all sampled documents are the same 
+ * String instances.
+ * 
+ * The fields be put into the {@code JsonObject} in the same sequence as the client decodes a row. 
+ * A {@code JsonObject} is backed by a {@code HashMap}, {@code getNames()} not iterate in the order 
+ * of the document, but the same names put in the same sequence iterate the same order, so the scan 
+ * creates the same tables, columns and array dimensions as from the decoded row.
+ * 
+ * @author kylin
+ *
+ */
+public class DocumentWalker {
+    
+    private static final String STRING = ""; //$NON-NLS-1$
+    private static final Integer INTEGER = 0;
+    private static final Long LONG = 0L;
+    private static final Double DOUBLE = 0d;
+    private static final BigInteger BIG_INTEGER = BigInteger.ZERO;
+    
+    private final byte[] keyspace;
+    private final PathNode root = new PathNode(null);
+    
+    /**
+     * @param keyspace - the name of the field which holds the document in the row, the keyspace name
+     */
+    public DocumentWalker(String keyspace) {
+        this.keyspace = keyspace.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @param row - the raw bytes of a row like {@code {"PK":"customer-1","test":{...}}}
+     * @return the shape of the document, null if the row has no document of the keyspace
+     */
+    public JsonObject walk(byte[] row) {
+        JsonTokenizer tokenizer = new JsonTokenizer(row);
+        if(tokenizer.next() != Token.START_OBJECT) {
+            return null;
+        }
+        while(tokenizer.next() == Token.FIELD_NAME) {
+            boolean match = tokenizer.nameEquals(this.keyspace);
+            Token token = tokenizer.next();
+            if(match && token == Token.START_OBJECT) {
+                return readObject(tokenizer, this.root);
+            }
+            tokenizer.skipChildren();
+        }
+        return null;
+    }
+    
+    private JsonObject readObject(JsonTokenizer tokenizer, PathNode node) {
+        JsonObject object = JsonObject.create();
+        while(tokenizer.next() == Token.FIELD_NAME) {
+            PathNode child = node.child(tokenizer);
+            object.put(child.name, readValue(tokenizer, tokenizer.next(), child));
+        }
+        return object;
+    }
+    
+    private JsonArray readArray(JsonTokenizer tokenizer, PathNode node) {
+        JsonArray array = JsonArray.create();
+        Token token = tokenizer.next();
+        while(token != null && token != Token.END_ARRAY) {
+            array.add(readValue(tokenizer, token, node));
+            token = tokenizer.next();
+        }
+        return array;
+    }
+    
+    private Object readValue(JsonTokenizer tokenizer, Token token, PathNode node) {
+        if(token == null) {
+            return null;
+        }
+        switch(token) {
+        case START_OBJECT:
+            return readObject(tokenizer, node);
+        case START_ARRAY:
+            return readArray(tokenizer, node);
+        case STRING:
+            return STRING;
+        case NUMBER:
+            return readNumber(tokenizer);
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        default:
+            return null;
+        }
+    }
+    
+    private Object readNumber(JsonTokenizer tokenizer) {
+        if(tokenizer.isDecimal()) {
+            return DOUBLE;
+        }
+        if(tokenizer.getLength() < 10) {
+            return INTEGER;
+        }
+        Number number = tokenizer.getNumber();
+        if(number instanceof Integer) {
+            return INTEGER;
+        } else if(number instanceof Long) {
+            return LONG;
+        }
+        return BIG_INTEGER;
+    }
+    
+    /**
+     * A node of the attribute path trie, the elements of an array share the node of the array.
+     */
+    private static class PathNode {
+        
+        private final String name;
+        private final byte[] bytes;
+        private PathNode[] children = new PathNode[0];
+        
+        PathNode(String name) {
+            this.name = name;
+            this.bytes = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+        }
+        
+        /**
+         * @return the child of the current field name, created if the field name not seen before at this path
+         */
+        PathNode child(JsonTokenizer tokenizer) {
+            for(PathNode child : this.children) {
+                if(tokenizer.nameEquals(child.bytes)) {
+                    return child;
+                }
+            }
+            PathNode child = new PathNode(tokenizer.getText());
+            PathNode[] newChildren = new PathNode[this.children.length + 1];
+            System.arraycopy(this.children, 0, newChildren, 0, this.children.length);
+            newChildren[this.children.length] = child;
+            this.children = newChildren;
+            return child;
+        }
+    }
+}
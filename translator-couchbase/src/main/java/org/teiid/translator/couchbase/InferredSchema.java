@@ -0,0 +1,230 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseProperties.COLON;
+import static org.teiid.translator.couchbase.CouchbaseProperties.WAVE;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+/**
+ * Maps the schema summary the {@code INFER} statement computed on the server to exemplar documents, 
+ * the exemplar documents be scanned as the sampled documents, so the same tables, array tables and
+ * name in source paths be produced without pulling the documents over the wire.
+ * 
+ * The {@code INFER} returns a flavor per kind of documents, each flavor is a JSON schema like
+ * <pre> {@code
+ *  {"#docs": 100, "Flavor": "type = \"Customer\"", "type": "object", "properties": {
+ *     "Name": {"type": "string", "samples": ["John Doe"]},
+ *     "Items": {"type": "array", "items": {"type": "object", "properties": {...}}},
+ *     "Score": {"type": ["number", "string"], "samples": [1, "A"]}}}
+ * }</pre>
+ * A attribute has several types be mapped to several exemplar documents, the n-th document use the 
+ * n-th type, so the column be widened as the sampler does. A number be a integer if all of its 
+ * samples are integers.
+ *
+ * @author kylin
+ *
+ */
+public class InferredSchema {
+    
+    private static final String PROPERTIES = "properties"; //$NON-NLS-1$
+    private static final String ITEMS = "items"; //$NON-NLS-1$
+    private static final String TYPE = "type"; //$NON-NLS-1$
+    private static final String SAMPLES = "samples"; //$NON-NLS-1$
+    private static final String FLAVOR = "Flavor"; //$NON-NLS-1$
+    
+    /**
+     * Executes the {@code INFER} of a keyspace.
+     * @return the flavors, or null if the server not support {@code INFER} or the inference failed
+     */
+    public static JsonArray infer(CouchbaseConnection conn, String namespace, String keyspace, int sampleSize) {
+        
+        String query = "INFER " + WAVE + namespace + WAVE + COLON + WAVE + keyspace + WAVE + " WITH {\"sample_size\": " + sampleSize + ", \"num_sample_values\": 5}"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, query)); 
+        try {
+            N1qlQueryResult result = conn.executeQuery(query);
+            if(!result.finalSuccess()) {
+                LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29033, keyspace, result.errors()));
+                return null;
+            }
+            JsonArray flavors = JsonArray.create();
+            for(N1qlQueryRow row : result.allRows()) {
+                // the row of INFER is a array of flavors rather than a object
+                JsonArray array = JsonArray.fromJson(new String(row.byteValue(), StandardCharsets.UTF_8));
+                for(int i = 0 ; i < array.size() ; i ++) {
+                    if(array.get(i) instanceof JsonObject) {
+                        flavors.add(array.get(i));
+                    }
+                }
+            }
+            return flavors;
+        } catch (RuntimeException e) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29033, keyspace, e.getMessage()));
+            return null;
+        }
+    }
+    
+    /**
+     * @param flavors - the flavors of the keyspace
+     * @param typeName - the typed attribute, like {@code `type`}, null if the keyspace not typed
+     * @param typedValue - the typed value of the table
+     * @return the exemplar documents of the flavors belong to the table, empty if no such flavor
+     */
+    public static List<JsonObject> documents(JsonArray flavors, String typeName, String typedValue) {
+        List<JsonObject> results = new ArrayList<>();
+        for(int i = 0 ; i < flavors.size() ; i ++) {
+            JsonObject flavor = flavors.getObject(i);
+            if(typeName != null && !isTyped(flavor, typeName.substring(1, typeName.length() - 1), typedValue)) {
+                continue;
+            }
+            int variants = variants(flavor);
+            for(int variant = 0 ; variant < variants ; variant ++) {
+                Object document = exemplar(flavor, variant);
+                if(document instanceof JsonObject) {
+                    results.add((JsonObject) document);
+                }
+            }
+        }
+        return results;
+    }
+    
+    private static boolean isTyped(JsonObject flavor, String typeName, String typedValue) {
+        JsonObject properties = flavor.getObject(PROPERTIES);
+        JsonObject typed = properties == null ? null : properties.getObject(typeName);
+        if(typed != null && typed.getArray(SAMPLES) != null && typed.getArray(SAMPLES).toList().contains(typedValue)) {
+            return true;
+        }
+        String description = flavor.getString(FLAVOR);
+        return description != null && description.contains(typeName + " = \"" + typedValue + "\""); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * @return the maximum number of the types of a attribute in the schema
+     */
+    static int variants(JsonObject schema) {
+        int result = 1;
+        Object type = schema.get(TYPE);
+        if(type instanceof JsonArray) {
+            result = Math.max(result, ((JsonArray) type).size());
+        }
+        JsonObject properties = schema.getObject(PROPERTIES);
+        if(properties != null) {
+            for(String name : properties.getNames()) {
+                Object property = properties.get(name);
+                if(property instanceof JsonObject) {
+                    result = Math.max(result, variants((JsonObject) property));
+                }
+            }
+        }
+        for(JsonObject item : items(schema)) {
+            result = Math.max(result, variants(item));
+        }
+        return result;
+    }
+    
+    private static List<JsonObject> items(JsonObject schema) {
+        List<JsonObject> results = new ArrayList<>();
+        Object items = schema.get(ITEMS);
+        if(items instanceof JsonObject) {
+            results.add((JsonObject) items);
+        } else if(items instanceof JsonArray) {
+            JsonArray array = (JsonArray) items;
+            for(int i = 0 ; i < array.size() ; i ++) {
+                if(array.get(i) instanceof JsonObject) {
+                    results.add(array.getObject(i));
+                }
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * @return the exemplar value of the schema, a {@code JsonObject}, {@code JsonArray}, a sample like value, or null
+     */
+    static Object exemplar(JsonObject schema, int variant) {
+        
+        String type = null;
+        Object types = schema.get(TYPE);
+        if(types instanceof String) {
+            type = (String) types;
+        } else if(types instanceof JsonArray && ((JsonArray) types).size() > 0) {
+            JsonArray array = (JsonArray) types;
+            type = array.getString(Math.min(variant, array.size() - 1));
+        }
+        
+        if("object".equals(type)) { //$NON-NLS-1$
+            JsonObject result = JsonObject.create();
+            JsonObject properties = schema.getObject(PROPERTIES);
+            if(properties != null) {
+                for(String name : properties.getNames()) {
+                    Object property = properties.get(name);
+                    if(property instanceof JsonObject) {
+                        result.put(name, exemplar((JsonObject) property, variant));
+                    }
+                }
+            }
+            return result;
+        } else if("array".equals(type)) { //$NON-NLS-1$
+            JsonArray result = JsonArray.create();
+            for(JsonObject item : items(schema)) {
+                result.add(exemplar(item, variant));
+            }
+            return result;
+        } else if("string".equals(type)) { //$NON-NLS-1$
+            return ""; //$NON-NLS-1$
+        } else if("boolean".equals(type)) { //$NON-NLS-1$
+            return Boolean.TRUE;
+        } else if("number".equals(type)) { //$NON-NLS-1$
+            return number(schema.getArray(SAMPLES));
+        } 
+        return null;
+    }
+    
+    private static Object number(JsonArray samples) {
+        if(samples == null || samples.size() == 0) {
+            return Double.valueOf(0);
+        }
+        boolean isLong = false;
+        for(int i = 0 ; i < samples.size() ; i ++) {
+            Object sample = samples.get(i);
+            if(sample instanceof Long) {
+                isLong = true;
+            } else if(!(sample instanceof Integer)) {
+                return Double.valueOf(0);
+            }
+        }
+        return isLong ? Long.valueOf(0) : Integer.valueOf(0);
+    }
+
+}
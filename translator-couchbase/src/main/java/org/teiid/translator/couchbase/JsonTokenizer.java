@@ -0,0 +1,371 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pull tokenizer over the UTF-8 bytes of a JSON text, used to read the fields of a document 
+ * or a N1QL row without building the {@code JsonObject} tree.
+ * 
+ * The numbers be typed as the Couchbase client does: an integral number is a {@code Integer},
+ * a {@code Long} or a {@code BigInteger} by its range, other numbers are {@code Double}.
+ * 
+ * @author kylin
+ *
+ */
+public class JsonTokenizer {
+    
+    public static enum Token {
+        START_OBJECT,
+        END_OBJECT,
+        START_ARRAY,
+        END_ARRAY,
+        FIELD_NAME,
+        STRING,
+        NUMBER,
+        TRUE,
+        FALSE,
+        NULL
+    }
+    
+    private final byte[] bytes;
+    private final int end;
+    private int pos;
+    
+    private Token token;
+    private int start;
+    private int tokenEnd;
+    private boolean escaped;
+    private boolean decimal;
+    
+    private boolean[] objects = new boolean[16];
+    private int depth;
+    private boolean expectName;
+    
+    public JsonTokenizer(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+    
+    public JsonTokenizer(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+    
+    /**
+     * @return the next token, or null if reach the end of the text
+     */
+    public Token next() {
+        
+        while(this.pos < this.end) {
+            byte b = this.bytes[this.pos];
+            if(b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == ',' || b == ':') {
+                this.pos++;
+            } else {
+                break;
+            }
+        }
+        
+        if(this.pos >= this.end) {
+            this.token = null;
+            return null;
+        }
+        
+        this.start = this.pos;
+        byte b = this.bytes[this.pos];
+        switch(b) {
+        case '{':
+            this.pos++;
+            push(true);
+            this.expectName = true;
+            return this.token = Token.START_OBJECT;
+        case '}':
+            this.pos++;
+            pop();
+            return this.token = Token.END_OBJECT;
+        case '[':
+            this.pos++;
+            push(false);
+            this.expectName = false;
+            return this.token = Token.START_ARRAY;
+        case ']':
+            this.pos++;
+            pop();
+            return this.token = Token.END_ARRAY;
+        case '"':
+            readString();
+            if(this.expectName && isInObject()) {
+                this.expectName = false;
+                return this.token = Token.FIELD_NAME;
+            }
+            afterValue();
+            return this.token = Token.STRING;
+        case 't':
+            this.pos += 4;
+            afterValue();
+            return this.token = Token.TRUE;
+        case 'f':
+            this.pos += 5;
+            afterValue();
+            return this.token = Token.FALSE;
+        case 'n':
+            this.pos += 4;
+            afterValue();
+            return this.token = Token.NULL;
+        default:
+            readNumber();
+            afterValue();
+            return this.token = Token.NUMBER;
+        }
+    }
+    
+    public Token getToken() {
+        return this.token;
+    }
+    
+    /**
+     * @return the depth of the nested objects and arrays, 0 if at the top level
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+    
+    private void push(boolean object) {
+        if(this.depth == this.objects.length) {
+            boolean[] newObjects = new boolean[this.depth * 2];
+            System.arraycopy(this.objects, 0, newObjects, 0, this.depth);
+            this.objects = newObjects;
+        }
+        this.objects[this.depth++] = object;
+    }
+    
+    private void pop() {
+        if(this.depth > 0) {
+            this.depth--;
+        }
+        afterValue();
+    }
+    
+    private boolean isInObject() {
+        return this.depth > 0 && this.objects[this.depth - 1];
+    }
+    
+    private void afterValue() {
+        this.expectName = isInObject();
+    }
+    
+    private void readString() {
+        this.escaped = false;
+        int i = this.pos + 1;
+        this.start = i;
+        while(i < this.end) {
+            byte b = this.bytes[i];
+            if(b == '\\') {
+                this.escaped = true;
+                i += 2;
+            } else if(b == '"') {
+                break;
+            } else {
+                i++;
+            }
+        }
+        this.tokenEnd = Math.min(i, this.end);
+        this.pos = this.tokenEnd + 1;
+    }
+    
+    private void readNumber() {
+        this.decimal = false;
+        int i = this.pos;
+        while(i < this.end) {
+            byte b = this.bytes[i];
+            if(b == '.' || b == 'e' || b == 'E') {
+                this.decimal = true;
+            } else if(!(b == '-' || b == '+' || (b >= '0' && b <= '9'))) {
+                break;
+            }
+            i++;
+        }
+        this.start = this.pos;
+        this.tokenEnd = i;
+        this.pos = i;
+    }
+    
+    /**
+     * @return the text of the current {@link Token#STRING} or {@link Token#FIELD_NAME}
+     */
+    public String getText() {
+        if(!this.escaped) {
+            return new String(this.bytes, this.start, this.tokenEnd - this.start, StandardCharsets.UTF_8);
+        }
+        return unescape();
+    }
+    
+    private String unescape() {
+        StringBuilder sb = new StringBuilder(this.tokenEnd - this.start);
+        int segment = this.start;
+        int i = this.start;
+        while(i < this.tokenEnd) {
+            if(this.bytes[i] != '\\') {
+                i++;
+                continue;
+            }
+            sb.append(new String(this.bytes, segment, i - segment, StandardCharsets.UTF_8));
+            byte c = this.bytes[i + 1];
+            switch(c) {
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'n': sb.append('\n'); break;
+            case 'r': sb.append('\r'); break;
+            case 't': sb.append('\t'); break;
+            case 'u':
+                sb.append((char)Integer.parseInt(new String(this.bytes, i + 2, 4, StandardCharsets.US_ASCII), 16));
+                i += 4;
+                break;
+            default: sb.append((char)c); 
+            }
+            i += 2;
+            segment = i;
+        }
+        sb.append(new String(this.bytes, segment, this.tokenEnd - segment, StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+    
+    /**
+     * @param name - the UTF-8 bytes of a name
+     * @return true if the current {@link Token#FIELD_NAME} is the name, without decoding the field name
+     */
+    public boolean nameEquals(byte[] name) {
+        if(this.escaped) {
+            return getText().equals(new String(name, StandardCharsets.UTF_8));
+        }
+        int length = this.tokenEnd - this.start;
+        if(length != name.length) {
+            return false;
+        }
+        for(int i = 0 ; i < length ; i++) {
+            if(this.bytes[this.start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return true if the current {@link Token#NUMBER} has a fraction or an exponent
+     */
+    public boolean isDecimal() {
+        return this.decimal;
+    }
+    
+    /**
+     * @return the number of bytes of the current {@link Token#NUMBER}, or of the current text without the quotes
+     */
+    public int getLength() {
+        return this.tokenEnd - this.start;
+    }
+    
+    /**
+     * @return the value of the current {@link Token#NUMBER}
+     */
+    public Number getNumber() {
+        String text = new String(this.bytes, this.start, this.tokenEnd - this.start, StandardCharsets.US_ASCII);
+        if(this.decimal) {
+            return Double.valueOf(text);
+        }
+        if(text.length() < 10) {
+            return Integer.valueOf(text);
+        } 
+        if(text.length() < 19) {
+            long value = Long.parseLong(text);
+            if(value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int)value;
+            }
+            return value;
+        }
+        BigInteger value = new BigInteger(text);
+        if(value.bitLength() < 32) {
+            return value.intValue();
+        } else if(value.bitLength() < 64) {
+            return value.longValue();
+        }
+        return value;
+    }
+    
+    /**
+     * @return the java value of the current scalar token, String, Number, Boolean or null
+     */
+    public Object getValue() {
+        switch(this.token) {
+        case STRING:
+            return getText();
+        case NUMBER:
+            return getNumber();
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        default:
+            return null;
+        }
+    }
+    
+    /**
+     * Skips the children of the current {@link Token#START_OBJECT} or {@link Token#START_ARRAY},
+     * the current token becomes the matched end token. Do nothing for other tokens.
+     */
+    public void skipChildren() {
+        if(this.token != Token.START_OBJECT && this.token != Token.START_ARRAY) {
+            return;
+        }
+        int level = 1;
+        int i = this.pos;
+        while(i < this.end && level > 0) {
+            byte b = this.bytes[i];
+            if(b == '"') {
+                i++;
+                while(i < this.end && this.bytes[i] != '"') {
+                    i += this.bytes[i] == '\\' ? 2 : 1;
+                }
+            } else if(b == '{' || b == '[') {
+                level++;
+            } else if(b == '}' || b == ']') {
+                level--;
+            }
+            i++;
+        }
+        this.token = this.token == Token.START_OBJECT ? Token.END_OBJECT : Token.END_ARRAY;
+        this.pos = i;
+        pop();
+    }
+    
+    /**
+     * Skips the current object or array and returns its JSON text.
+     * @return the JSON text of the current object or array, or the text of a scalar token
+     */
+    public String readRaw() {
+        int begin = this.token == Token.STRING ? this.start - 1 : this.start;
+        skipChildren();
+        return new String(this.bytes, begin, this.pos - begin, StandardCharsets.UTF_8);
+    }
+}
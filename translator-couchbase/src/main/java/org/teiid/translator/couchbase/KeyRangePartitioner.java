@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.IS_ARRAY_TABLE;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.NAMED_TYPE_PAIR;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.PARTITION_COLUMN;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.PARTITION_CONCURRENCY;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.PARTITION_COUNT;
+import static org.teiid.translator.couchbase.CouchbaseProperties.COLON;
+import static org.teiid.translator.couchbase.CouchbaseProperties.DOCUMENTID;
+import static org.teiid.translator.couchbase.CouchbaseProperties.TRUE_VALUE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.language.AndOr;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.IsNull;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.Table;
+import org.teiid.translator.TranslatorException;
+
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+/**
+ * Splits a full scan of a large table into key ranges, which be executed as concurrent N1QL 
+ * requests and be merged into one result.
+ *
+ * The partitioning be configured per table with the extension metadata properties:
+ * <pre>
+ *   teiid_couchbase:PARTITIONCOUNT       - the number of ranges, the scan not be partitioned if less than 2
+ *   teiid_couchbase:PARTITIONCONCURRENCY - the maximum ranges executed concurrently, default is the number of ranges
+ *   teiid_couchbase:PARTITIONCOLUMN      - the indexed column be split, default is the documentID
+ * </pre>
+ * The range bounds be the quantiles of the column, they be looked up with covered index scans 
+ * once and be cached, the ranges always cover the whole column space, so a stale bound only 
+ * affect the balance of the ranges.
+ *
+ * @author kylin
+ *
+ */
+public class KeyRangePartitioner {
+    
+    private static final String ALIAS = "`$cb_p`"; //$NON-NLS-1$
+    
+    private final Select select;
+    private final Table table;
+    private final ColumnReference column;
+    private final int count;
+    private final int concurrency;
+    
+    private KeyRangePartitioner(Select select, Table table, ColumnReference column, int count, int concurrency) {
+        this.select = select;
+        this.table = table;
+        this.column = column;
+        this.count = count;
+        this.concurrency = concurrency;
+    }
+    
+    /**
+     * @param command - the query
+     * @return the partitioner, or null if the query is not a scan or aggregation of a partitioned table
+     */
+    public static KeyRangePartitioner plan(QueryExpression command) {
+        
+        if(!(command instanceof Select)) {
+            return null;
+        }
+        Select select = (Select) command;
+        if(select.getFrom() == null || select.getFrom().size() != 1 || !(select.getFrom().get(0) instanceof NamedTable)) {
+            return null;
+        }
+        if(select.isDistinct() || select.getHaving() != null || select.getOrderBy() != null || select.getLimit() != null) {
+            return null;
+        }
+        
+        NamedTable namedTable = (NamedTable) select.getFrom().get(0);
+        Table table = namedTable.getMetadataObject();
+        if(TRUE_VALUE.equals(table.getProperty(IS_ARRAY_TABLE, false))) {
+            return null;
+        }
+        int count = intProperty(table, PARTITION_COUNT, 0);
+        if(count < 2) {
+            return null;
+        }
+        
+        String columnName = table.getProperty(PARTITION_COLUMN, false);
+        Column column = table.getColumnByName(columnName == null ? DOCUMENTID : columnName);
+        if(column == null) {
+            return null;
+        }
+        ColumnReference reference = new ColumnReference(namedTable, column.getName(), column, column.getJavaType());
+        return new KeyRangePartitioner(select, table, reference, count, intProperty(table, PARTITION_CONCURRENCY, count));
+    }
+    
+    private static int intProperty(Table table, String key, int defaultValue) {
+        String value = table.getProperty(key, false);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * @return the range bounds in ascending order, empty if the table has too few values to be split
+     */
+    public Object[] getBounds(CouchbaseConnection connection, Map<String, Object[]> cache) throws TranslatorException {
+        
+        String from = this.table.getNameInSource() + ' ' + ALIAS;
+        String expr = isPK() ? "META(" + ALIAS + ").id" : ALIAS + this.column.getMetadataObject().getNameInSource().substring(this.table.getNameInSource().length()); //$NON-NLS-1$ //$NON-NLS-2$
+        StringBuilder where = new StringBuilder();
+        where.append(expr).append(isPK() ? " IS NOT MISSING" : " IS VALUED"); //$NON-NLS-1$ //$NON-NLS-2$
+        String typedPair = this.table.getProperty(NAMED_TYPE_PAIR, false);
+        if(typedPair != null && typedPair.length() > 0) {
+            String[] pair = typedPair.split(COLON);
+            where.append(" AND ").append(ALIAS).append('.').append(pair[0]).append(" = ").append(pair[1]); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        
+        String key = from + ' ' + where + ' ' + this.count;
+        Object[] bounds = cache.get(key);
+        if(bounds != null) {
+            return bounds;
+        }
+        
+        String countQuery = "SELECT COUNT(*) AS v FROM " + from + " WHERE " + where; //$NON-NLS-1$ //$NON-NLS-2$
+        Object total = single(connection, countQuery);
+        long size = total instanceof Number ? ((Number) total).longValue() : 0;
+        
+        List<Object> values = new ArrayList<>(this.count - 1);
+        ValueConverter converter = ValueConverter.forType(this.column.getType());
+        for(int i = 1 ; i < this.count && size >= this.count ; i ++) {
+            String boundQuery = "SELECT " + expr + " AS v FROM " + from + " WHERE " + where + " ORDER BY " + expr + " LIMIT 1 OFFSET " + (size * i / this.count); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+            Object value = converter.convert(single(connection, boundQuery));
+            if(value != null && (values.isEmpty() || !value.equals(values.get(values.size() - 1)))) {
+                values.add(value);
+            }
+        }
+        bounds = values.toArray();
+        cache.put(key, bounds);
+        return bounds;
+    }
+    
+    private static Object single(CouchbaseConnection connection, String n1ql) throws TranslatorException {
+        N1qlQueryResult result = connection.executeQuery(n1ql);
+        if(!result.finalSuccess()) {
+            throw new TranslatorException(CouchbasePlugin.Event.TEIID29028, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29028, n1ql, result.errors()));
+        }
+        List<N1qlQueryRow> rows = result.allRows();
+        return rows.isEmpty() ? null : rows.get(0).value().get("v"); //$NON-NLS-1$
+    }
+    
+    /**
+     * @param bounds - the ascending bounds
+     * @return the range conditions, {@code c < b1}, {@code c >= b1 AND c < b2} ... {@code c >= bn}, the first 
+     *         range of a column also includes the nulls
+     */
+    public List<Condition> getRanges(Object[] bounds) {
+        List<Condition> ranges = new ArrayList<>(bounds.length + 1);
+        for(int i = 0 ; i <= bounds.length ; i ++) {
+            Condition lower = i == 0 ? null : new Comparison(this.column, literal(bounds[i - 1]), Comparison.Operator.GE);
+            Condition upper = i == bounds.length ? null : new Comparison(this.column, literal(bounds[i]), Comparison.Operator.LT);
+            if(i == 0 && !isPK()) {
+                upper = new AndOr(upper, new IsNull(this.column, false), AndOr.Operator.OR);
+            }
+            if(lower == null) {
+                ranges.add(upper);
+            } else if(upper == null) {
+                ranges.add(lower);
+            } else {
+                ranges.add(new AndOr(lower, upper, AndOr.Operator.AND));
+            }
+        }
+        return ranges;
+    }
+    
+    private Literal literal(Object value) {
+        return new Literal(value, this.column.getType());
+    }
+    
+    private boolean isPK() {
+        return this.column.getName().equals(DOCUMENTID) && this.column.getMetadataObject().getNameInSource() == null;
+    }
+    
+    public Select getSelect() {
+        return select;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.IS_ARRAY_TABLE;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.NAMED_TYPE_PAIR;
+import static org.teiid.translator.couchbase.CouchbaseProperties.COLON;
+import static org.teiid.translator.couchbase.CouchbaseProperties.DOCUMENTID;
+import static org.teiid.translator.couchbase.CouchbaseProperties.QUOTE;
+import static org.teiid.translator.couchbase.CouchbaseProperties.TRUE_VALUE;
+import static org.teiid.translator.couchbase.CouchbaseProperties.WAVE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.In;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
+import org.teiid.language.TableReference;
+import org.teiid.metadata.Table;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * A plan of a table query which only filters on the document id, like
+ * <pre>
+ *   SELECT Name FROM Customer WHERE documentID = 'customer'
+ *   SELECT Name FROM Customer WHERE documentID IN ('customer', 'customer2')
+ * </pre>
+ * such query be executed as a bulk key-value get rather than N1QL, the retrieved documents be
+ * projected into columns by the same nameInSource paths the {@link N1QLVisitor} uses.
+ * 
+ * @author kylin
+ *
+ */
+public class KeyValueLookup {
+    
+    private final Set<String> keys;
+    private final List<String[]> columnPaths;
+    private final String[] typedPath;
+    private final String typedValue;
+    
+    private KeyValueLookup(Set<String> keys, List<String[]> columnPaths, String[] typedPath, String typedValue) {
+        this.keys = keys;
+        this.columnPaths = columnPaths;
+        this.typedPath = typedPath;
+        this.typedValue = typedValue;
+    }
+    
+    /**
+     * @param command - the query
+     * @param keyspace - the keyspace the connection opened
+     * @return the key-value lookup plan, or null if the query need be executed as N1QL
+     */
+    public static KeyValueLookup plan(QueryExpression command, String keyspace) {
+        
+        if(!(command instanceof Select)) {
+            return null;
+        }
+        
+        Select select = (Select) command;
+        if(select.isDistinct() || select.getGroupBy() != null || select.getHaving() != null || select.getOrderBy() != null || select.getLimit() != null || select.getWhere() == null) {
+            return null;
+        }
+        
+        if(select.getFrom() == null || select.getFrom().size() != 1) {
+            return null;
+        }
+        TableReference from = select.getFrom().get(0);
+        if(!(from instanceof NamedTable)) {
+            return null;
+        }
+        Table table = ((NamedTable)from).getMetadataObject();
+        if(TRUE_VALUE.equals(table.getProperty(IS_ARRAY_TABLE, false)) || keyspace == null || !keyspace.equals(trimWave(table.getNameInSource()))) {
+            return null;
+        }
+        
+        Set<String> keys = collectKeys(select.getWhere());
+        if(keys == null) {
+            return null;
+        }
+        
+        List<String[]> columnPaths = new ArrayList<>(select.getDerivedColumns().size());
+        for(DerivedColumn column : select.getDerivedColumns()) {
+            if(!(column.getExpression() instanceof ColumnReference)) {
+                return null;
+            }
+            ColumnReference reference = (ColumnReference) column.getExpression();
+            if(isPKColumn(reference)) {
+                columnPaths.add(null);
+            } else {
+                String nameInSource = reference.getMetadataObject().getNameInSource();
+                if(nameInSource == null) {
+                    return null;
+                }
+                String[] path = parsePath(nameInSource);
+                if(path.length < 2) {
+                    return null;
+                }
+                columnPaths.add(Arrays.copyOfRange(path, 1, path.length));
+            }
+        }
+        
+        String[] typedPath = null;
+        String typedValue = null;
+        String typedNamePair = table.getProperty(NAMED_TYPE_PAIR, false);
+        if(typedNamePair != null && typedNamePair.length() > 0) {
+            int index = typedNamePair.lastIndexOf(COLON + QUOTE);
+            if(index < 0) {
+                return null;
+            }
+            typedPath = parsePath(typedNamePair.substring(0, index));
+            typedValue = typedNamePair.substring(index + 2, typedNamePair.length() - 1);
+        }
+        
+        return new KeyValueLookup(keys, columnPaths, typedPath, typedValue);
+    }
+    
+    /**
+     * @return the keys of a {@code documentID = 'k'} or {@code documentID IN ('k1', 'k2')} criteria, 
+     *         null if the criteria not only filter on the document id.
+     */
+    static Set<String> collectKeys(Condition where) {
+        
+        List<Expression> values = new ArrayList<>();
+        if(where instanceof Comparison) {
+            Comparison comparison = (Comparison) where;
+            if(comparison.getOperator() != Comparison.Operator.EQ || !isPKColumn(comparison.getLeftExpression())) {
+                return null;
+            }
+            values.add(comparison.getRightExpression());
+        } else if(where instanceof In) {
+            In in = (In) where;
+            if(in.isNegated() || !isPKColumn(in.getLeftExpression())) {
+                return null;
+            }
+            values.addAll(in.getRightExpressions());
+        } else {
+            return null;
+        }
+        
+        Set<String> keys = new LinkedHashSet<>();
+        for(Expression value : values) {
+            if(!(value instanceof Literal) || ((Literal)value).isMultiValued() || !(((Literal)value).getValue() instanceof String)) {
+                return null;
+            }
+            keys.add((String)((Literal)value).getValue());
+        }
+        return keys;
+    }
+    
+    private static boolean isPKColumn(Expression expression) {
+        if(!(expression instanceof ColumnReference)) {
+            return false;
+        }
+        ColumnReference reference = (ColumnReference) expression;
+        return reference.getMetadataObject() != null && reference.getName().equals(DOCUMENTID) && reference.getMetadataObject().getNameInSource() == null;
+    }
+    
+    /**
+     * Splits a nameInSource like {@code `test`.`CreditCard`.`CardNumber`} to its attribute names.
+     */
+    static String[] parsePath(String nameInSource) {
+        List<String> path = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0 ; i < nameInSource.length() ; i++) {
+            char c = nameInSource.charAt(i);
+            if(c == WAVE.charAt(0)) {
+                quoted = !quoted;
+            } else if(c == '.' && !quoted) {
+                path.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        path.add(sb.toString());
+        return path.toArray(new String[path.size()]);
+    }
+    
+    private static String trimWave(String value) {
+        if(value != null && value.startsWith(WAVE) && value.endsWith(WAVE) && value.length() > 1) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+    
+    public Set<String> getKeys() {
+        return keys;
+    }
+    
+    /**
+     * Projects a retrieved document to the values of the select columns.
+     * @param id - the document id
+     * @param content - the raw JSON content of the document
+     * @return the column values, or null if the document is not of the table type
+     */
+    public List<Object> project(String id, String content) {
+        
+        JsonObject document = null;
+        if(content != null && content.trim().startsWith("{")) { //$NON-NLS-1$
+            document = JsonObject.fromJson(content);
+        }
+        return project(id, document);
+    }
+    
+    /**
+     * @param document - the parsed document, or null if the content is not a JSON object
+     * @see #project(String, String)
+     */
+    public List<Object> project(String id, JsonObject document) {
+        
+        if(this.typedPath != null && (document == null || !this.typedValue.equals(String.valueOf(get(document, this.typedPath))))) {
+            return null;
+        }
+        
+        List<Object> values = new ArrayList<>(this.columnPaths.size());
+        for(String[] path : this.columnPaths) {
+            if(path == null) {
+                values.add(id);
+            } else {
+                values.add(document == null ? null : get(document, path));
+            }
+        }
+        return values;
+    }
+    
+    private static Object get(JsonObject document, String[] path) {
+        Object value = document;
+        for(String name : path) {
+            if(!(value instanceof JsonObject)) {
+                return null;
+            }
+            value = ((JsonObject)value).get(name);
+        }
+        return value;
+    }
+}
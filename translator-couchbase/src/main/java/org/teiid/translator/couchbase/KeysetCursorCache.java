@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A LRU cache of the keyset pagination cursors, each entry maps the position of a page, 
+ * which is the query scoped to a connection and the offset of the page, to the sort key 
+ * values of the row right before the page.
+ *
+ * @author kylin
+ *
+ */
+public class KeysetCursorCache {
+    
+    private final int maxSize;
+    private final Map<String, Object[]> cursors;
+    
+    public KeysetCursorCache(int maxSize) {
+        this.maxSize = maxSize > 0 ? maxSize : 1;
+        this.cursors = new LinkedHashMap<String, Object[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 2958711410254466370L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object[]> eldest) {
+                return size() > KeysetCursorCache.this.maxSize;
+            }
+        };
+    }
+    
+    /**
+     * @param position - the query and the offset of a page
+     * @return the sort key values of the row before the page, or null if not cached
+     */
+    public synchronized Object[] get(String position) {
+        return this.cursors.get(position);
+    }
+    
+    public synchronized void put(String position, Object[] keys) {
+        this.cursors.put(position, keys);
+    }
+    
+    public synchronized int size() {
+        return this.cursors.size();
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseProperties.DOCUMENTID;
+
+import java.util.List;
+
+import org.teiid.language.AndOr;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.LanguageUtil;
+import org.teiid.language.Limit;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
+import org.teiid.language.SortSpecification;
+import org.teiid.language.SortSpecification.Ordering;
+
+/**
+ * Serves a deep {@code LIMIT n OFFSET m} page with a seek on the sort keys rather than let the
+ * query service skip {@code m} rows.
+ *
+ * A page query be eligible if it is ordered ascending by selected columns and the last sort key 
+ * is the {@code documentID}, so the sort keys are unique, only the {@code documentID}, which never 
+ * be NULL or MISSING, can be descending. While the rows of a page be consumed, the stored JSON 
+ * values of the sort keys of the last row be cached as the cursor of the next offset. A page whose offset has 
+ * a cursor be rewritten as {@code (k1 > v1) OR (k1 = v1 AND k2 > v2) ... LIMIT n}, a page without 
+ * cursor be executed with the {@code OFFSET} as is.
+ *
+ * @author kylin
+ *
+ */
+public class KeysetPagination {
+    
+    private final Select select;
+    private final KeysetCursorCache cache;
+    private final String query;
+    private final int[] keyColumns;
+    private final boolean[] descending;
+    private final int offset;
+    private final int rowLimit;
+    
+    private Object[] lastKeys;
+    private int count;
+    
+    private KeysetPagination(Select select, KeysetCursorCache cache, String query, int[] keyColumns, boolean[] descending) {
+        this.select = select;
+        this.cache = cache;
+        this.query = query;
+        this.keyColumns = keyColumns;
+        this.descending = descending;
+        this.offset = select.getLimit().getRowOffset();
+        this.rowLimit = select.getLimit().getRowLimit();
+    }
+    
+    /**
+     * @param command - the pushed down query
+     * @param cache - the cursor cache
+     * @param scope - the scope of the cursors, usually the connection id
+     * @return the pagination, or null if the query is not a eligible page query
+     */
+    public static KeysetPagination plan(QueryExpression command, KeysetCursorCache cache, String scope) {
+        
+        if(!(command instanceof Select)) {
+            return null;
+        }
+        Select select = (Select) command;
+        if(select.getLimit() == null || select.getOrderBy() == null || select.getGroupBy() != null || select.getHaving() != null) {
+            return null;
+        }
+        if(select.getFrom() == null || select.getFrom().size() != 1 || !(select.getFrom().get(0) instanceof NamedTable)) {
+            return null;
+        }
+        
+        List<SortSpecification> sorts = select.getOrderBy().getSortSpecifications();
+        int[] keyColumns = new int[sorts.size()];
+        boolean[] descending = new boolean[sorts.size()];
+        for(int i = 0 ; i < sorts.size() ; i ++) {
+            SortSpecification sort = sorts.get(i);
+            if(sort.getNullOrdering() != null) {
+                return null;
+            }
+            keyColumns[i] = indexOf(select.getDerivedColumns(), sort.getExpression());
+            if(keyColumns[i] < 0) {
+                return null;
+            }
+            descending[i] = sort.getOrdering() == Ordering.DESC;
+            if(descending[i] && i < sorts.size() - 1) {
+                // the NULL and MISSING sort last in descending order, a seek would drop them
+                return null;
+            }
+        }
+        
+        ColumnReference last = (ColumnReference) select.getDerivedColumns().get(keyColumns[keyColumns.length - 1]).getExpression();
+        if(!last.getName().equals(DOCUMENTID) || last.getMetadataObject().getNameInSource() != null) {
+            return null;
+        }
+        
+        Limit limit = select.getLimit();
+        select.setLimit(null);
+        String query = scope + '|' + select.toString();
+        select.setLimit(limit);
+        
+        return new KeysetPagination(select, cache, query, keyColumns, descending);
+    }
+    
+    private static int indexOf(List<DerivedColumn> columns, Expression expr) {
+        if(!(expr instanceof ColumnReference) || ((ColumnReference)expr).getMetadataObject() == null) {
+            return -1;
+        }
+        for(int i = 0 ; i < columns.size() ; i ++) {
+            Expression column = columns.get(i).getExpression();
+            if(column instanceof ColumnReference && ((ColumnReference)column).getMetadataObject() == ((ColumnReference)expr).getMetadataObject()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Rewrites the query to seek after the cached cursor of its offset.
+     * @return true if rewritten, false if the page have no cursor
+     */
+    public boolean rewrite() {
+        if(this.offset == 0) {
+            return false;
+        }
+        Object[] keys = this.cache.get(position(this.offset));
+        if(keys == null) {
+            return false;
+        }
+        
+        Condition seek = null;
+        for(int i = this.keyColumns.length - 1 ; i >= 0 ; i --) {
+            Expression column = this.select.getDerivedColumns().get(this.keyColumns[i]).getExpression();
+            // the stored JSON value be compared, not the value converted to the column type
+            Literal value = new Literal(keys[i], keys[i].getClass());
+            Condition after = new Comparison(column, value, this.descending[i] ? Comparison.Operator.LT : Comparison.Operator.GT);
+            if(seek != null) {
+                Condition equal = new Comparison(column, new Literal(keys[i], keys[i].getClass()), Comparison.Operator.EQ);
+                after = new AndOr(after, new AndOr(equal, seek, AndOr.Operator.AND), AndOr.Operator.OR);
+            }
+            seek = after;
+        }
+        this.select.setWhere(LanguageUtil.combineCriteria(this.select.getWhere(), seek));
+        this.select.setLimit(new Limit(0, this.rowLimit));
+        return true;
+    }
+    
+    /**
+     * Records the sort key values of a consumed row.
+     * @param values - the JSON values of the row, before converted to the column types
+     */
+    public void observe(Object[] values) {
+        Object[] keys = new Object[this.keyColumns.length];
+        for(int i = 0 ; i < this.keyColumns.length ; i ++) {
+            keys[i] = values[this.keyColumns[i]];
+        }
+        this.lastKeys = keys;
+        this.count++;
+    }
+    
+    /**
+     * Caches the last consumed row as the cursor of the offset right after it, a cursor with 
+     * null, object or array key be ignored, which not be comparable in a seek.
+     */
+    public void store() {
+        if(this.lastKeys == null) {
+            return;
+        }
+        for(Object key : this.lastKeys) {
+            if(!(key instanceof String || key instanceof Number || key instanceof Boolean)) {
+                return;
+            }
+        }
+        this.cache.put(position(this.offset + this.count), this.lastKeys);
+    }
+    
+    private String position(int rowOffset) {
+        return this.query + '#' + rowOffset;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+}
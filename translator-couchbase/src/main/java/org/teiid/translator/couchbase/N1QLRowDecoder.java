@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.teiid.translator.couchbase.JsonTokenizer.Token;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Decodes the raw bytes of a N1QL row with the {@link JsonTokenizer}, only the bound result 
+ * fields be decoded, the other fields be skipped without building any object.
+ * 
+ * @author kylin
+ *
+ */
+public class N1QLRowDecoder {
+    
+    private final int size;
+    private final byte[][] names;
+    private final int[][] indexes;
+    
+    /**
+     * @param fields - the result field name of each column
+     */
+    public N1QLRowDecoder(String[] fields) {
+        this.size = fields.length;
+        Map<String, List<Integer>> map = new LinkedHashMap<>();
+        for(int i = 0 ; i < fields.length ; i ++) {
+            List<Integer> list = map.get(fields[i]);
+            if(list == null) {
+                list = new ArrayList<>(1);
+                map.put(fields[i], list);
+            }
+            list.add(i);
+        }
+        this.names = new byte[map.size()][];
+        this.indexes = new int[map.size()][];
+        int i = 0;
+        for(Map.Entry<String, List<Integer>> entry : map.entrySet()) {
+            this.names[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            this.indexes[i] = new int[entry.getValue().size()];
+            for(int j = 0 ; j < this.indexes[i].length ; j ++) {
+                this.indexes[i][j] = entry.getValue().get(j);
+            }
+            i++;
+        }
+    }
+    
+    /**
+     * @param row - the raw bytes of a N1QL row, a JSON object
+     * @return the value of each column, the nested objects and arrays as {@code JsonObject} and {@code JsonArray}
+     */
+    public Object[] decode(byte[] row) {
+        
+        Object[] values = new Object[this.size];
+        JsonTokenizer tokenizer = new JsonTokenizer(row);
+        if(tokenizer.next() != Token.START_OBJECT) {
+            return values;
+        }
+        
+        int found = 0;
+        while(found < this.names.length && tokenizer.next() == Token.FIELD_NAME) {
+            int match = -1;
+            for(int i = 0 ; i < this.names.length ; i ++) {
+                if(tokenizer.nameEquals(this.names[i])) {
+                    match = i;
+                    break;
+                }
+            }
+            Token token = tokenizer.next();
+            if(match < 0) {
+                tokenizer.skipChildren();
+                continue;
+            }
+            Object value = null;
+            if(token == Token.START_OBJECT) {
+                value = JsonObject.fromJson(tokenizer.readRaw());
+            } else if(token == Token.START_ARRAY) {
+                value = JsonArray.fromJson(tokenizer.readRaw());
+            } else {
+                value = tokenizer.getValue();
+            }
+            for(int index : this.indexes[match]) {
+                values[index] = value;
+            }
+            found++;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.TranslatorException;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.DefaultN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func1;
+
+/**
+ * A bounded buffer between the Couchbase network threads, which emit the rows of an
+ * {@code AsyncN1qlQueryResult}, and the {@code next()} of an execution.
+ *
+ * The stream never requests more rows than the capacity of the buffer from the upstream
+ * {@code Observable}, each time the consumer drained half of the capacity the same number of
+ * rows be requested, and the rows be available to the engine as soon as they arrive. The
+ * request only be a backpressure signal to the local {@code Observable}, not to the query
+ * service, the SDK still buffers the rows the server sent ahead of the request, so the buffer
+ * only bounds the rows be held by the stream itself, not the memory be used by a result.
+ *
+ * With a listener the stream can be consumed without blocking, {@link #poll()} throws
+ * {@link DataNotAvailableException#NO_POLLING} if no row arrived, the listener be notified
+ * once the next row, the error or the end of the result arrives.
+ *
+ * @author kylin
+ *
+ */
+public class N1QLRowStream extends Subscriber<AsyncN1qlQueryRow> {
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final int capacity;
+    private final int replenishSize;
+
+    private int consumed;
+    private volatile boolean finished;
+    private volatile Throwable error;
+    
+    private volatile Runnable listener;
+    private volatile boolean waiting;
+
+    public N1QLRowStream(int capacity) {
+        this.capacity = capacity > 0 ? capacity : 1;
+        this.replenishSize = Math.max(1, this.capacity / 2);
+    }
+
+    /**
+     * Sets the listener be notified when data arrives for a consumer which polled an empty buffer,
+     * must be set before {@link #subscribe(Observable)}.
+     * @param listener
+     * @return this stream
+     */
+    public N1QLRowStream listen(Runnable listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Subscribes the stream to the rows of the given asynchronous query.
+     * @param result - the {@code Observable} returned by the async N1QL query
+     * @return this stream
+     */
+    public N1QLRowStream subscribe(Observable<AsyncN1qlQueryResult> result) {
+        return subscribeRows(rows(result));
+    }
+
+    /**
+     * Subscribes the stream to the rows, the rows may be composed from several queries.
+     * @param rows - the rows, usually built by {@link #rows(Observable)}
+     * @return this stream
+     */
+    public N1QLRowStream subscribeRows(Observable<AsyncN1qlQueryRow> rows) {
+        rows.subscribe(this);
+        return this;
+    }
+
+    /**
+     * Flat the async N1QL result to its rows, the errors reported by the query service
+     * be emitted as a {@link QueryFailedException} after the last row.
+     */
+    static Observable<AsyncN1qlQueryRow> rows(Observable<AsyncN1qlQueryResult> result) {
+        return result.flatMap(new Func1<AsyncN1qlQueryResult, Observable<AsyncN1qlQueryRow>>() {
+            @Override
+            public Observable<AsyncN1qlQueryRow> call(AsyncN1qlQueryResult queryResult) {
+                return queryResult.rows().concatWith(queryResult.errors().toList().flatMap(new Func1<List<JsonObject>, Observable<AsyncN1qlQueryRow>>() {
+                    @Override
+                    public Observable<AsyncN1qlQueryRow> call(List<JsonObject> errors) {
+                        if(errors.isEmpty()) {
+                            return Observable.empty();
+                        }
+                        return Observable.error(new QueryFailedException(errors));
+                    }}));
+            }});
+    }
+
+    @Override
+    public void onStart() {
+        request(this.capacity);
+    }
+
+    @Override
+    public void onNext(AsyncN1qlQueryRow row) {
+        this.queue.offer(new DefaultN1qlQueryRow(row));
+        signal();
+    }
+
+    @Override
+    public void onError(Throwable e) {
+        this.error = e;
+        this.queue.offer(END);
+        signal();
+    }
+
+    @Override
+    public void onCompleted() {
+        this.queue.offer(END);
+        signal();
+    }
+
+    private void signal() {
+        Runnable l = this.listener;
+        if(this.waiting && l != null) {
+            this.waiting = false;
+            l.run();
+        }
+    }
+
+    /**
+     * Returns the next row, waits if no row arrived yet.
+     * @return the next row, or null if all rows be consumed
+     * @throws TranslatorException if the query failed
+     */
+    public N1qlQueryRow take() throws TranslatorException {
+        if(this.finished) {
+            return null;
+        }
+        try {
+            return handle(this.queue.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new TranslatorException(e);
+        }
+    }
+
+    /**
+     * Returns the next row without waiting.
+     * @return the next row, or null if all rows be consumed
+     * @throws DataNotAvailableException if no row arrived yet, the listener will be notified once it arrives
+     * @throws TranslatorException if the query failed
+     */
+    public N1qlQueryRow poll() throws TranslatorException, DataNotAvailableException {
+        if(this.finished) {
+            return null;
+        }
+        Object item = this.queue.poll();
+        if(item == null) {
+            // mark waiting before check again, a row arrived in between will not be missed
+            this.waiting = true;
+            item = this.queue.poll();
+            if(item == null) {
+                throw DataNotAvailableException.NO_POLLING;
+            }
+            this.waiting = false;
+        }
+        return handle(item);
+    }
+
+    private N1qlQueryRow handle(Object item) throws TranslatorException {
+        if(item == END) {
+            this.finished = true;
+            if(this.error != null) {
+                throw new TranslatorException(this.error);
+            }
+            return null;
+        }
+        if(++this.consumed >= this.replenishSize) {
+            int requested = this.consumed;
+            this.consumed = 0;
+            request(requested);
+        }
+        return (N1qlQueryRow) item;
+    }
+
+    /**
+     * Stops receiving rows and discards the buffered rows, may be called from another thread, 
+     * a consumer blocked in {@link #take()} be woken up and sees the end of the rows.
+     */
+    public void close() {
+        this.finished = true;
+        unsubscribe();
+        this.queue.clear();
+        this.queue.offer(END);
+    }
+
+    /**
+     * Signals the errors be reported by the query service.
+     */
+    public static class QueryFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = -2432717165939367613L;
+
+        private final List<JsonObject> errors;
+
+        public QueryFailedException(List<JsonObject> errors) {
+            super(errors.toString());
+            this.errors = errors;
+        }
+
+        public List<JsonObject> getErrors() {
+            return errors;
+        }
+    }
+}
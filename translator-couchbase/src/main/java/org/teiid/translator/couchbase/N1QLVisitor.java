@@ -38,6 +38,8 @@ import static org.teiid.language.SQLConstants.Tokens.SPACE;
 import static org.teiid.language.SQLConstants.Tokens.LPAREN;
 import static org.teiid.language.SQLConstants.Tokens.RPAREN;
 import static org.teiid.language.SQLConstants.Tokens.EQ;
+import static org.teiid.language.SQLConstants.Tokens.GE;
+import static org.teiid.language.SQLConstants.Tokens.LT;
 import static org.teiid.translator.couchbase.CouchbaseProperties.GETDOCUMENT;
 import static org.teiid.translator.couchbase.CouchbaseProperties.GETDOCUMENTS;
 import static org.teiid.translator.couchbase.CouchbaseProperties.GETMETADATADOCUMENT;
@@ -62,18 +64,32 @@ import static org.teiid.translator.couchbase.CouchbaseProperties.UNDERSCORE;
 import static org.teiid.translator.couchbase.CouchbaseProperties.UNNEST;
 import static org.teiid.translator.couchbase.CouchbaseProperties.UNNEST_POSITION;
 import static org.teiid.translator.couchbase.CouchbaseProperties.LET;
+import static org.teiid.translator.couchbase.CouchbaseProperties.PLACEHOLDER;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.teiid.language.AggregateFunction;
+import org.teiid.language.AndOr;
 import org.teiid.language.Call;
 import org.teiid.language.ColumnReference;
 import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
 import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
 import org.teiid.language.Function;
 import org.teiid.language.GroupBy;
+import org.teiid.language.In;
+import org.teiid.language.IsNull;
+import org.teiid.language.LanguageUtil;
+import org.teiid.language.Like;
+import org.teiid.language.Like.MatchMode;
 import org.teiid.language.Limit;
 import org.teiid.language.Literal;
 import org.teiid.language.NamedTable;
@@ -82,7 +98,14 @@ import org.teiid.language.SQLConstants.NonReserved;
 import org.teiid.language.SQLConstants.Reserved;
 import org.teiid.language.SQLConstants.Tokens;
 import org.teiid.language.Select;
+import org.teiid.language.WindowFunction;
+import org.teiid.language.visitor.CollectorVisitor;
 import org.teiid.language.visitor.SQLStringVisitor;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.KeyRecord;
+import org.teiid.metadata.Table;
+
+import com.couchbase.client.java.document.json.JsonArray;
 
 public class N1QLVisitor extends SQLStringVisitor{
     
@@ -91,6 +114,8 @@ public class N1QLVisitor extends SQLStringVisitor{
     private boolean recordColumnName = true;
     private List<String> selectColumns = new ArrayList<>();
     private List<String> selectColumnReferences = new ArrayList<>();
+    private List<String> resultFields = new ArrayList<>();
+    private int unnamedCounter = 0;
     private Map<String, CBColumn> columnMap = new HashMap<>();
     
     private AliasGenerator columnAliasGenerator;
@@ -107,14 +132,40 @@ public class N1QLVisitor extends SQLStringVisitor{
     
     private boolean isUnrelatedColumns = false;
     
+    private boolean bindLiterals = false;
+    private boolean isBindScope = false;
+    private boolean isWhere = false;
+    private JsonArray parameters = JsonArray.create();
+    
+    private String innermostAlias;
+    private String keyspaceAlias;
+    
+    private Condition where;
+    private JsonArray useKeys;
+    private int useKeysIndex = -1;
+    private boolean isSplittable = false;
+    private int selects = 0;
+    
+    private KeyRecord useIndex;
 
     public N1QLVisitor(CouchbaseExecutionFactory ef) {
         this.ef = ef;
+        this.bindLiterals = ef.isUseBindVariables() || ef.isUsePreparedStatements();
     }
     
     @Override
     public void visit(Select obj) {
         
+        // the keys of a set query branch never be split, and never leak to the next branch
+        this.useKeys = null;
+        this.useKeysIndex = -1;
+        this.isSplittable = this.selects++ == 0 && isPlainProjection(obj);
+        initWhere(obj);
+        if(this.ef.isUseIndexHints()) {
+            this.useIndex = coveringIndex(obj);
+        }
+        this.unnamedCounter = 0;
+        
         buffer.append(SELECT).append(Tokens.SPACE);
         if (obj.isDistinct()) {
             buffer.append(DISTINCT).append(Tokens.SPACE);
@@ -129,7 +180,10 @@ public class N1QLVisitor extends SQLStringVisitor{
         
         appendLet(obj);
         
+        this.isBindScope = true;
         appendWhere(obj);
+        this.isBindScope = false;
+        appendIndexKeyPredicate();
             
         if (obj.getGroupBy() != null) {
             buffer.append(Tokens.SPACE);
@@ -138,7 +192,9 @@ public class N1QLVisitor extends SQLStringVisitor{
         
         if (obj.getHaving() != null) {
             buffer.append(Tokens.SPACE).append(HAVING).append(Tokens.SPACE);
+            this.isBindScope = true;
             append(obj.getHaving());
+            this.isBindScope = false;
         }
         
         if (obj.getOrderBy() != null) {
@@ -152,6 +208,152 @@ public class N1QLVisitor extends SQLStringVisitor{
         }
     }
     
+    /**
+     * A {@code documentID IN (...)} criteria, usually the key set of a dependent join, be pulled out
+     * of the where clause, and be rendered as {@code USE KEYS} of the keyspace.
+     */
+    private void initWhere(Select obj) {
+        this.where = obj.getWhere();
+        if(this.where == null) {
+            return;
+        }
+        List<Condition> conditions = LanguageUtil.separateCriteriaByAnd(this.where);
+        for(Iterator<Condition> iter = conditions.iterator() ; iter.hasNext() ;) {
+            JsonArray keys = toUseKeys(iter.next());
+            if(keys != null) {
+                this.useKeys = keys;
+                iter.remove();
+                break;
+            }
+        }
+        this.where = LanguageUtil.combineCriteria(conditions);
+    }
+    
+    private JsonArray toUseKeys(Condition condition) {
+        if(!(condition instanceof In)) {
+            return null;
+        }
+        In in = (In) condition;
+        if(in.isNegated() || !(in.getLeftExpression() instanceof ColumnReference) || !isPKColumn((ColumnReference) in.getLeftExpression())) {
+            return null;
+        }
+        JsonArray keys = JsonArray.create();
+        for(Expression expr : in.getRightExpressions()) {
+            if(!(expr instanceof Literal) || ((Literal)expr).isMultiValued() || !(((Literal)expr).getValue() instanceof String)) {
+                return null;
+            }
+            keys.add(((Literal)expr).getValue());
+        }
+        return keys;
+    }
+    
+    /**
+     * The keys of {@code USE KEYS} always be bound as a positional parameter, so a large key set
+     * of a plain projection can be executed in several batches with same N1QL.
+     */
+    private void appendUseKeys() {
+        if(this.useKeys != null) {
+            buffer.append(SPACE).append("USE KEYS").append(SPACE); //$NON-NLS-1$
+            appendParameter(this.useKeys);
+            this.useKeysIndex = this.isSplittable ? this.parameters.size() - 1 : -1;
+            this.useKeys = null;
+        }
+    }
+    
+    /**
+     * @return true if the rows of the select be the union of the rows of any split of the keys, 
+     *         that is, no aggregate, grouping, ordering, row limit or duplicate removal
+     */
+    private boolean isPlainProjection(Select obj) {
+        return !obj.isDistinct() && obj.getGroupBy() == null && obj.getHaving() == null && obj.getOrderBy() == null && obj.getLimit() == null 
+                && CollectorVisitor.collectObjects(AggregateFunction.class, obj.getDerivedColumns()).isEmpty()
+                && CollectorVisitor.collectObjects(WindowFunction.class, obj.getDerivedColumns()).isEmpty();
+    }
+    
+    /**
+     * Looks up the imported index which keys cover all columns the query referenced, and the leading key
+     * of which be restricted by the where, so the query service can answer the query from the index scan
+     * without fetching the documents. The index with least keys be chosen.
+     */
+    private KeyRecord coveringIndex(Select obj) {
+        if(this.useKeys != null || this.where == null || obj.getFrom() == null || obj.getFrom().size() != 1 || !(obj.getFrom().get(0) instanceof NamedTable)) {
+            return null;
+        }
+        Table table = ((NamedTable)obj.getFrom().get(0)).getMetadataObject();
+        if(table.getIndexes().isEmpty() || TRUE_VALUE.equals(table.getProperty(IS_ARRAY_TABLE, false))) {
+            return null;
+        }
+        
+        List<Column> columns = new ArrayList<>();
+        for(ColumnReference column : CollectorVisitor.collectElements(obj)) {
+            if(!isPKColumn(column)) {
+                columns.add(column.getMetadataObject());
+            }
+        }
+        List<Condition> conditions = LanguageUtil.separateCriteriaByAnd(this.where);
+        
+        KeyRecord result = null;
+        for(KeyRecord index : table.getIndexes()) {
+            if(index.getNameInSource() == null || !index.getColumns().containsAll(columns) || !isRestricted(index.getColumns().get(0), conditions)) {
+                continue;
+            }
+            if(result == null || index.getColumns().size() < result.getColumns().size()) {
+                result = index;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * @return true if one of the conditions only be true for the rows which column has a value 
+     */
+    private boolean isRestricted(Column column, List<Condition> conditions) {
+        for(Condition condition : conditions) {
+            Expression expr = null;
+            if(condition instanceof Comparison) {
+                expr = ((Comparison)condition).getLeftExpression();
+            } else if(condition instanceof In && !((In)condition).isNegated()) {
+                expr = ((In)condition).getLeftExpression();
+            } else if(condition instanceof Like && !((Like)condition).isNegated()) {
+                expr = ((Like)condition).getLeftExpression();
+            } else if(condition instanceof IsNull && ((IsNull)condition).isNegated()) {
+                expr = ((IsNull)condition).getExpression();
+            }
+            if(expr instanceof ColumnReference && ((ColumnReference)expr).getMetadataObject() == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void appendUseIndex() {
+        if(this.useIndex != null) {
+            buffer.append(SPACE).append("USE INDEX").append(SPACE).append(LPAREN); //$NON-NLS-1$
+            buffer.append(this.useIndex.getNameInSource()).append(SPACE).append("USING GSI").append(RPAREN); //$NON-NLS-1$
+        }
+    }
+    
+    /**
+     * The where be rendered on the LET variables, the leading key of the hinted index be referenced
+     * with its path either, so the query service can use it as the span of the index scan. The leading
+     * key already be restricted by the where, the predicate not change the result.
+     */
+    private void appendIndexKeyPredicate() {
+        if(this.useIndex == null) {
+            return;
+        }
+        Column key = this.useIndex.getColumns().get(0);
+        buffer.append(SPACE).append(Reserved.AND).append(SPACE);
+        if(key.getNameInSource() == null) {
+            buffer.append(buildMeta(this.keyspaceAlias));
+        } else {
+            String nameInSource = key.getNameInSource();
+            buffer.append(nameInSource(this.keyspaceAlias)).append(SOURCE_SEPARATOR);
+            buffer.append(nameInSource.substring(nameInSource.indexOf(SOURCE_SEPARATOR) + 1, nameInSource.length()));
+        }
+        buffer.append(SPACE).append(Reserved.IS).append(SPACE).append(Reserved.NOT).append(SPACE).append("MISSING"); //$NON-NLS-1$
+    }
+    
     private void appendLet(Select obj) {
 
         if(this.letStack.size() > 0) {
@@ -175,10 +377,19 @@ public class N1QLVisitor extends SQLStringVisitor{
             letValueReference.append(buildEQ(nameReference));
             
             if(column.isPK()) {
-                letValueReference.append(buildMeta(column.getTableAlias()));
+                letValueReference.append(buildMeta(this.keyspaceAlias));
                 column.setValueReference(letValueReference.toString());
             } else if (column.isIdx()) {
-                //todo - handle unreleated column in idx conlumn
+                // only the position of the innermost array be referenced
+                letValueReference.append(UNNEST_POSITION);
+                letValueReference.append(LPAREN).append(nameInSource(this.innermostAlias)).append(RPAREN);
+                column.setValueReference(letValueReference.toString());
+            } else if (this.isArrayTable) {
+                letValueReference.append(this.nameInSource(this.innermostAlias));
+                if(column.hasLeaf()) {
+                    letValueReference.append(SOURCE_SEPARATOR).append(this.nameInSource(column.getLeafName()));
+                }
+                column.setValueReference(letValueReference.toString());
             } else {
                 letValueReference.append(this.nameInSource(column.getTableAlias()));
                 String nameInSource = column.getNameInSource();
@@ -195,22 +406,32 @@ public class N1QLVisitor extends SQLStringVisitor{
             if (comma) {
                 buffer.append(COMMA).append(SPACE);
             }
+            comma = true;
             buffer.append(this.unrelatedStack.get(i).getValueReference()); 
         }
     }
 
+    /**
+     * Walks the where and order by to collect the columns not be selected, the text rendered
+     * during the walk be discarded.
+     */
     private void initUnrelatedColumns(Select obj) {
         
         isUnrelatedColumns = true;
+        boolean record = recordColumnName;
+        recordColumnName = false;
+        int length = buffer.length();
         
-        if(obj.getWhere() != null) {
-            append(obj.getWhere());
+        if(this.where != null) {
+            append(this.where);
         }
         
         if (obj.getOrderBy() != null) {
             append(obj.getOrderBy());
         }
-                
+        
+        buffer.setLength(length);
+        recordColumnName = record;
         isUnrelatedColumns = false;
         
     }
@@ -218,6 +439,15 @@ public class N1QLVisitor extends SQLStringVisitor{
     private void appendWhere(Select obj) {
         
         this.tmpStack.clear();
+        boolean record = recordColumnName;
+        recordColumnName = false;
+        this.isWhere = true;
+        doAppendWhere();
+        this.isWhere = false;
+        recordColumnName = record;
+    }
+    
+    private void doAppendWhere() {
         
         if(this.typedName != null && this.typedValue != null) {
             
@@ -231,9 +461,9 @@ public class N1QLVisitor extends SQLStringVisitor{
             }
             
             if(isTypedNameInLetStack) {
-                if(obj.getWhere() != null) {
+                if(this.where != null) {
                     buffer.append(SPACE).append(WHERE).append(SPACE);
-                    append(obj.getWhere());
+                    appendWhereCondition();
                     if(!isDuplicatedTypeColumn(typedColumn)) {
                         appendTypedWhere(false, typedColumn);
                     }
@@ -246,9 +476,9 @@ public class N1QLVisitor extends SQLStringVisitor{
             } else {
                 String keyspace = this.nameInSource(this.letStack.get(this.letStack.size() - 1).getTableAlias());
                 String unrelatedType = keyspace + SOURCE_SEPARATOR + buildTypedWhere(this.typedName, this.typedValue);
-                if(obj.getWhere() != null) {
+                if(this.where != null) {
                     buffer.append(SPACE).append(WHERE).append(SPACE);
-                    append(obj.getWhere());
+                    appendWhereCondition();
                     if(!isDuplicatedTypeColumn(this.typedName)){
                         buffer.append(SPACE).append(Reserved.AND).append(SPACE).append(unrelatedType);
                     }
@@ -261,14 +491,27 @@ public class N1QLVisitor extends SQLStringVisitor{
             }
             
         } else {
-            if(obj.getWhere() != null) {
+            if(this.where != null) {
                 buffer.append(SPACE).append(WHERE).append(SPACE);
-                append(obj.getWhere());
+                append(this.where);
             }
         }
         
     }
 
+    /**
+     * A {@code OR} be wrapped in parentheses, the typed predicate be appended with {@code AND}.
+     */
+    private void appendWhereCondition() {
+        if(this.where instanceof AndOr && ((AndOr)this.where).getOperator() == AndOr.Operator.OR) {
+            buffer.append(LPAREN);
+            append(this.where);
+            buffer.append(RPAREN);
+        } else {
+            append(this.where);
+        }
+    }
+
     private void appendTypedWhere(boolean and, List<CBColumn> typedColumn) {
         for(CBColumn column : typedColumn) {
             if(column.hasTypedWhere()) {
@@ -326,6 +569,7 @@ public class N1QLVisitor extends SQLStringVisitor{
         
         String tableNameInSource = obj.getMetadataObject().getNameInSource();
         String alias = getTableAliasGenerator().generate();
+        this.innermostAlias = alias;
         if(this.isArrayTable) {
             String baseName = tableNameInSource;
             String newAlias;
@@ -369,9 +613,11 @@ public class N1QLVisitor extends SQLStringVisitor{
                 column.setTableAlias(alias);
             }
             String keyspace = baseName.substring(0, baseName.indexOf(SOURCE_SEPARATOR));
+            this.keyspaceAlias = alias;
             buffer.append(keyspace);
             buffer.append(SPACE);
             buffer.append(nameInSource(alias));
+            appendUseKeys();
             
             for(int i = 0 ; i < this.letStack.size() ; i++) {
                 CBColumn column = this.letStack.get(i);
@@ -406,9 +652,12 @@ public class N1QLVisitor extends SQLStringVisitor{
                 column.setTableAlias(alias);
             }
 
+            this.keyspaceAlias = alias;
             buffer.append(tableNameInSource); // if a table not array table, the table name in source is keyspace name
             buffer.append(SPACE);
             buffer.append(nameInSource(alias));
+            appendUseKeys();
+            appendUseIndex();
         }
     }
 
@@ -434,41 +683,185 @@ public class N1QLVisitor extends SQLStringVisitor{
 
     @Override
     public void visit(GroupBy obj) {
+        boolean record = recordColumnName;
         recordColumnName = false;
         super.visit(obj);
-        recordColumnName = true;
+        recordColumnName = record;
     }
 
     @Override
     public void visit(OrderBy obj) {
+        boolean record = recordColumnName;
         recordColumnName = false;
         if(!isUnrelatedColumns) {
             buffer.append(ORDER).append(Tokens.SPACE).append(BY).append(Tokens.SPACE);
         }
         append(obj.getSortSpecifications());
-        recordColumnName = true;
+        recordColumnName = record;
     }
     
     @Override
     public void visit(Comparison obj) {
+        boolean record = recordColumnName;
         recordColumnName = false;
         append(obj.getLeftExpression());
-        if(!isUnrelatedColumns) {
-            buffer.append(Tokens.SPACE);
-            buffer.append(obj.getOperator());
-            buffer.append(Tokens.SPACE);
-            appendRightComparison(obj);
+        buffer.append(Tokens.SPACE);
+        buffer.append(obj.getOperator());
+        buffer.append(Tokens.SPACE);
+        appendRightComparison(obj);
+        recordColumnName = record;
+    }
+    
+    /**
+     * A prefix {@code LIKE} on the document id be rewritten to a bounded {@code META().id} range,
+     * which the query service turns into a narrow primary index span.
+     */
+    @Override
+    public void visit(Like obj) {
+        String pattern = this.isWhere ? keyPattern(obj) : null;
+        if(pattern == null) {
+            super.visit(obj);
+            return;
+        }
+        buffer.append(LPAREN);
+        appendKeyRange(buildMeta(this.keyspaceAlias), pattern);
+        buffer.append(RPAREN);
+    }
+    
+    private String keyPattern(Like obj) {
+        if(obj.isNegated() || obj.getMode() != MatchMode.LIKE || obj.getEscapeCharacter() != null) {
+            return null;
+        }
+        if(!(obj.getLeftExpression() instanceof ColumnReference) || !isPKColumn((ColumnReference) obj.getLeftExpression())) {
+            return null;
+        }
+        if(!(obj.getRightExpression() instanceof Literal) || !(((Literal)obj.getRightExpression()).getValue() instanceof String)) {
+            return null;
+        }
+        String pattern = (String) ((Literal)obj.getRightExpression()).getValue();
+        return likePrefix(pattern).length() > 0 ? pattern : null;
+    }
+    
+    /**
+     * Renders the key pattern as {@code meta >= prefix AND meta < next prefix}, the {@code LIKE} be kept only
+     * if the pattern has wildcards other than the trailing {@code %}, a pattern without wildcards be an equality.
+     */
+    private void appendKeyRange(String meta, String pattern) {
+        String prefix = likePrefix(pattern);
+        if(prefix.length() == pattern.length()) {
+            buffer.append(meta).append(SPACE).append(EQ).append(SPACE);
+            appendKey(prefix);
+            return;
+        }
+        buffer.append(meta).append(SPACE).append(GE).append(SPACE);
+        appendKey(prefix);
+        String upper = nextPrefix(prefix);
+        if(upper != null) {
+            buffer.append(SPACE).append(Reserved.AND).append(SPACE);
+            buffer.append(meta).append(SPACE).append(LT).append(SPACE);
+            appendKey(upper);
+        }
+        if(!pattern.equals(prefix + '%')) {
+            buffer.append(SPACE).append(Reserved.AND).append(SPACE);
+            buffer.append(meta).append(SPACE).append(Reserved.LIKE).append(SPACE);
+            appendKey(pattern);
+        }
+    }
+    
+    private void appendKey(String key) {
+        visit(new Literal(key, String.class));
+    }
+    
+    /**
+     * @return the literal part of a {@code LIKE} pattern before the first wildcard
+     */
+    static String likePrefix(String pattern) {
+        int i = 0;
+        while(i < pattern.length() && pattern.charAt(i) != '%' && pattern.charAt(i) != '_') {
+            i++;
+        }
+        return pattern.substring(0, i);
+    }
+    
+    /**
+     * @return the smallest string greater than all strings start with the prefix, null if no such string
+     */
+    static String nextPrefix(String prefix) {
+        StringBuilder sb = new StringBuilder(prefix);
+        for(int i = sb.length() - 1 ; i >= 0 ; i--) {
+            char c = sb.charAt(i);
+            if(c != Character.MAX_VALUE) {
+                sb.setCharAt(i, (char) (c + 1));
+                sb.setLength(i + 1);
+                return sb.toString();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * A missing attribute be returned as null, so the Teiid {@code IS NULL} be rendered as 
+     * {@code IS NOT VALUED}, which is true for both null and missing.
+     */
+    @Override
+    public void visit(IsNull obj) {
+        boolean record = recordColumnName;
+        recordColumnName = false;
+        append(obj.getExpression());
+        buffer.append(Tokens.SPACE).append(Reserved.IS).append(Tokens.SPACE);
+        if(!obj.isNegated()) {
+            buffer.append(Reserved.NOT).append(Tokens.SPACE);
         }
-        recordColumnName = true;
+        buffer.append("VALUED"); //$NON-NLS-1$
+        recordColumnName = record;
+    }
+
+    /**
+     * N1QL IN operator expects an array, the values be rendered as {@code [v1, v2]}.
+     */
+    @Override
+    public void visit(In obj) {
+        boolean record = recordColumnName;
+        recordColumnName = false;
+        append(obj.getLeftExpression());
+        buffer.append(Tokens.SPACE);
+        if(obj.isNegated()) {
+            buffer.append(Reserved.NOT).append(Tokens.SPACE);
+        }
+        buffer.append(Reserved.IN).append(Tokens.SPACE);
+        buffer.append(Tokens.LSBRACE);
+        append(obj.getRightExpressions());
+        buffer.append(Tokens.RSBRACE);
+        recordColumnName = record;
     }
 
     @Override
     public void visit(DerivedColumn obj) {
         if(recordColumnName) {
             selectColumnReferences.add(obj.getAlias());
+            int size = this.selectColumns.size();
+            append(obj.getExpression());
+            this.resultFields.add(resultField(obj, size));
+            return;
         }
         append(obj.getExpression());
     }
+    
+    /**
+     * The field name of a projection term in the N1QL result, a column be named by its LET 
+     * reference, other expressions be named as {@code $1..$n} by the order of the unnamed terms.
+     */
+    private String resultField(DerivedColumn obj, int size) {
+        if(obj.getExpression() instanceof ColumnReference) {
+            ColumnReference column = (ColumnReference) obj.getExpression();
+            if(column.getTable() == null) {
+                return column.getName();
+            } else if(this.selectColumns.size() == size + 1) {
+                return this.selectColumns.get(size);
+            }
+        }
+        return PLACEHOLDER + (++this.unnamedCounter);
+    }
 
     @Override
     public void visit(ColumnReference obj) {
@@ -480,9 +873,14 @@ public class N1QLVisitor extends SQLStringVisitor{
             }
             
             if(!isUnrelatedColumns && !recordColumnName && this.columnMap.get(obj.getName()) != null) {
-                String aliasName = this.columnMap.get(obj.getName()).getNameReference();
-                buffer.append(this.nameInSource(aliasName));
-                this.tmpStack.add(this.columnMap.get(obj.getName()));
+                CBColumn column = this.columnMap.get(obj.getName());
+                if(this.isWhere && column.isPK()) {
+                    // the document id in where be referenced directly, so it can be used as a primary index span
+                    buffer.append(buildMeta(this.keyspaceAlias));
+                } else {
+                    buffer.append(this.nameInSource(column.getNameReference()));
+                }
+                this.tmpStack.add(column);
                 return;
             } 
             
@@ -579,9 +977,61 @@ public class N1QLVisitor extends SQLStringVisitor{
         super.visit(obj);
     }
 
+    /**
+     * If bind literals, the literals in criteria and procedure arguments be replaced by positional 
+     * parameters {@code $1..$n}, the values be collected in {@link #getParameters()}.
+     */
+    @Override
+    public void visit(Literal obj) {
+        if(this.bindLiterals && this.isBindScope && !this.isUnrelatedColumns && !obj.isMultiValued()) {
+            Object value = toParameterValue(obj.getValue());
+            if(value != null) {
+                appendParameter(value);
+                return;
+            }
+        }
+        if(obj.getValue() instanceof java.util.Date) {
+            // N1QL has no date time literal, the value be compared as a string
+            buffer.append(Tokens.QUOTE).append(toParameterValue(obj.getValue())).append(Tokens.QUOTE);
+            return;
+        }
+        super.visit(obj);
+    }
+    
+    /**
+     * @return the value be bound as a N1QL parameter, or null if the value should be inlined
+     */
+    static Object toParameterValue(Object value) {
+        if(value instanceof String || value instanceof Boolean || value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof BigInteger || value instanceof BigDecimal) {
+            return value;
+        } else if(value instanceof Short || value instanceof Byte) {
+            return ((Number)value).intValue();
+        } else if(value instanceof Float) {
+            return ((Float)value).doubleValue();
+        } else if(value instanceof Character || value instanceof java.sql.Date || value instanceof java.sql.Time) {
+            return value.toString();
+        } else if(value instanceof Timestamp) {
+            // N1QL compares the date time as ISO-8601 strings
+            return value.toString().replace(' ', 'T');
+        }
+        return null;
+    }
+    
+    private void appendParameter(Object value) {
+        this.parameters.add(value);
+        buffer.append(PLACEHOLDER).append(this.parameters.size());
+    }
+
     @Override
     public void visit(Limit limit) {
-        if(limit.getRowOffset() > 0) {
+        if(this.bindLiterals) {
+            buffer.append(LIMIT).append(SPACE);
+            appendParameter(limit.getRowLimit());
+            if(limit.getRowOffset() > 0) {
+                buffer.append(SPACE).append(OFFSET).append(SPACE);
+                appendParameter(limit.getRowOffset());
+            }
+        } else if(limit.getRowOffset() > 0) {
             buffer.append(LIMIT).append(SPACE);
             buffer.append(limit.getRowLimit()).append(SPACE);
             buffer.append(OFFSET).append(SPACE);
@@ -598,6 +1048,28 @@ public class N1QLVisitor extends SQLStringVisitor{
     public List<String> getSelectColumnReferences() {
         return selectColumnReferences;
     }
+    
+    /**
+     * @return the field names in the N1QL result of the select columns, in the select order
+     */
+    public List<String> getResultFields() {
+        return resultFields;
+    }
+    
+    /**
+     * @return the positional parameter values, empty if literals not be bound
+     */
+    public JsonArray getParameters() {
+        return parameters;
+    }
+    
+    /**
+     * @return the index of the {@code USE KEYS} keys in {@link #getParameters()}, -1 if no {@code USE KEYS}
+     *         or the keys must be sent in one statement
+     */
+    public int getUseKeysIndex() {
+        return useKeysIndex;
+    }
 
     public AliasGenerator getColumnAliasGenerator() {
         if(this.columnAliasGenerator == null) {
@@ -691,14 +1163,24 @@ public class N1QLVisitor extends SQLStringVisitor{
     
     private void appendN1QLWhere(Call call) {
         buffer.append(Reserved.WHERE).append(SPACE);
-        buffer.append("META").append(LPAREN).append(RPAREN).append(".id").append(SPACE); //$NON-NLS-1$ //$NON-NLS-2$
-        buffer.append(Reserved.LIKE).append(SPACE);
-        append(call.getArguments().get(0));
+        String meta = "META" + LPAREN + RPAREN + ".id"; //$NON-NLS-1$ //$NON-NLS-2$
+        this.isBindScope = true;
+        Object pattern = call.getArguments().get(0).getArgumentValue().getValue();
+        if(pattern instanceof String && likePrefix((String) pattern).length() > 0) {
+            appendKeyRange(meta, (String) pattern);
+        } else {
+            buffer.append(meta).append(SPACE);
+            buffer.append(Reserved.LIKE).append(SPACE);
+            append(call.getArguments().get(0));
+        }
+        this.isBindScope = false;
     }
     
     private void appendN1QLPK(Call call) {
         buffer.append("USE PRIMARY KEYS").append(SPACE); //$NON-NLS-1$
+        this.isBindScope = true;
         append(call.getArguments().get(0));
+        this.isBindScope = false;
     }
     
     private String nameInSource(String path) {
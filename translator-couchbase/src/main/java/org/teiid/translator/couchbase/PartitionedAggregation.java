@@ -0,0 +1,298 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.teiid.language.AggregateFunction;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.Function;
+import org.teiid.language.Literal;
+import org.teiid.language.Select;
+import org.teiid.language.SQLConstants.NonReserved;
+import org.teiid.language.visitor.CollectorVisitor;
+import org.teiid.translator.TranslatorException;
+
+/**
+ * The two phase execution of a aggregate query over key range partitions, each partition 
+ * executes a partial aggregate query, the partial results be merged by the group keys:
+ * <pre>
+ *   SUM(x)   - SUM(x) per partition, summed
+ *   COUNT(x) - COUNT(x) per partition, summed
+ *   AVG(x)   - SUM(x) and the COUNT of the numeric x per partition, summed and divided
+ *   MAX(x)   - MAX(x) per partition, the max of maxes
+ *   MIN(x)   - MIN(x) per partition, the min of mins
+ * </pre>
+ * The partial query selects the group by columns first, then the partial aggregates.
+ *
+ * @author kylin
+ *
+ */
+public class PartitionedAggregation {
+    
+    private static final int GROUP = 0;
+    private static final int SUM = 1;
+    private static final int COUNT = 2;
+    private static final int AVG = 3;
+    private static final int MAX = 4;
+    private static final int MIN = 5;
+    
+    private final Select partialSelect;
+    private final int keySize;
+    private final int[] kinds;
+    private final int[] partialIndexes;
+    
+    private final Map<List<Object>, Object[]> groups = new LinkedHashMap<>();
+    
+    private PartitionedAggregation(Select partialSelect, int keySize, int[] kinds, int[] partialIndexes) {
+        this.partialSelect = partialSelect;
+        this.keySize = keySize;
+        this.kinds = kinds;
+        this.partialIndexes = partialIndexes;
+    }
+    
+    /**
+     * @return true if the query has a group by or aggregate functions
+     */
+    public static boolean isAggregate(Select select) {
+        return select.getGroupBy() != null || !CollectorVisitor.collectObjects(AggregateFunction.class, select.getDerivedColumns()).isEmpty();
+    }
+    
+    /**
+     * @param select - a aggregate query over a partitioned table
+     * @return the aggregation, or null if the select terms are not group by columns or mergeable aggregates
+     */
+    public static PartitionedAggregation plan(Select select) {
+        
+        List<Expression> keys = new ArrayList<>();
+        if(select.getGroupBy() != null) {
+            for(Expression expr : select.getGroupBy().getElements()) {
+                if(!(expr instanceof ColumnReference)) {
+                    return null;
+                }
+                keys.add(expr);
+            }
+        }
+        
+        List<DerivedColumn> partials = new ArrayList<>();
+        for(Expression key : keys) {
+            partials.add(new DerivedColumn(null, key));
+        }
+        
+        List<DerivedColumn> columns = select.getDerivedColumns();
+        int[] kinds = new int[columns.size()];
+        int[] partialIndexes = new int[columns.size()];
+        for(int i = 0 ; i < columns.size() ; i ++) {
+            Expression expr = columns.get(i).getExpression();
+            if(expr instanceof ColumnReference) {
+                partialIndexes[i] = indexOf(keys, (ColumnReference) expr);
+                if(partialIndexes[i] < 0) {
+                    return null;
+                }
+                kinds[i] = GROUP;
+                continue;
+            } 
+            if(!(expr instanceof AggregateFunction)) {
+                return null;
+            }
+            AggregateFunction agg = (AggregateFunction) expr;
+            if(agg.isDistinct() || agg.getCondition() != null || agg.getOrderBy() != null || agg.getParameters().size() > 1) {
+                return null;
+            }
+            String name = agg.getName();
+            partialIndexes[i] = partials.size();
+            if(name.equalsIgnoreCase(NonReserved.SUM)) {
+                kinds[i] = SUM;
+                partials.add(new DerivedColumn(null, agg));
+            } else if(name.equalsIgnoreCase(NonReserved.COUNT)) {
+                kinds[i] = COUNT;
+                partials.add(new DerivedColumn(null, agg));
+            } else if(name.equalsIgnoreCase(NonReserved.MAX)) {
+                kinds[i] = MAX;
+                partials.add(new DerivedColumn(null, agg));
+            } else if(name.equalsIgnoreCase(NonReserved.MIN)) {
+                kinds[i] = MIN;
+                partials.add(new DerivedColumn(null, agg));
+            } else if(name.equalsIgnoreCase(NonReserved.AVG)) {
+                kinds[i] = AVG;
+                partials.add(new DerivedColumn(null, new AggregateFunction(NonReserved.SUM, false, agg.getParameters(), agg.getType())));
+                partials.add(new DerivedColumn(null, new AggregateFunction(NonReserved.COUNT, false, Arrays.asList(numeric(agg.getParameters().get(0))), Integer.class)));
+            } else {
+                return null;
+            }
+        }
+        
+        Select partialSelect = new Select(partials, false, select.getFrom(), select.getWhere(), select.getGroupBy(), null, null);
+        return new PartitionedAggregation(partialSelect, keys.size(), kinds, partialIndexes);
+    }
+    
+    /**
+     * {@code NULLIF(IS_NUMBER(x), FALSE)}, be null if x is not a number, so the {@code COUNT} of it 
+     * only counts the values the {@code SUM} adds up, the same as the values the {@code AVG} sees.
+     */
+    private static Expression numeric(Expression expr) {
+        Function isNumber = new Function("IS_NUMBER", Arrays.asList(expr), Boolean.class); //$NON-NLS-1$
+        return new Function("NULLIF", Arrays.asList(isNumber, new Literal(Boolean.FALSE, Boolean.class)), Boolean.class); //$NON-NLS-1$
+    }
+    
+    private static int indexOf(List<Expression> keys, ColumnReference column) {
+        for(int i = 0 ; i < keys.size() ; i ++) {
+            if(((ColumnReference)keys.get(i)).getMetadataObject() == column.getMetadataObject()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Merges a partial row into its group, the group keys and the {@code MAX}/{@code MIN}, which be 
+     * compared, be converted with the types of the select terms first.
+     * @param values - the values of the partial row, in the partial select order
+     * @param converters - the converters of the select terms
+     */
+    public void accumulate(Object[] values, ValueConverter[] converters) throws TranslatorException {
+        for(int i = 0 ; i < this.kinds.length ; i ++) {
+            if(this.kinds[i] == GROUP || this.kinds[i] == MAX || this.kinds[i] == MIN) {
+                values[this.partialIndexes[i]] = converters[i].convert(values[this.partialIndexes[i]]);
+            }
+        }
+        List<Object> key = this.keySize == 0 ? Collections.emptyList() : Arrays.asList(Arrays.copyOf(values, this.keySize));
+        Object[] merged = this.groups.get(key);
+        if(merged == null) {
+            this.groups.put(key, values);
+            return;
+        }
+        for(int i = 0 ; i < this.kinds.length ; i ++) {
+            int index = this.partialIndexes[i];
+            switch(this.kinds[i]) {
+            case SUM:
+            case COUNT:
+                merged[index] = add(merged[index], values[index]);
+                break;
+            case AVG:
+                merged[index] = add(merged[index], values[index]);
+                merged[index + 1] = add(merged[index + 1], values[index + 1]);
+                break;
+            case MAX:
+                merged[index] = extreme(merged[index], values[index], true);
+                break;
+            case MIN:
+                merged[index] = extreme(merged[index], values[index], false);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+    
+    /**
+     * @param converters - the converters of the select terms
+     * @return the merged rows, each in the select order
+     */
+    public List<List<?>> getResults(ValueConverter[] converters) throws TranslatorException {
+        List<List<?>> results = new ArrayList<>(this.groups.size());
+        for(Object[] merged : this.groups.values()) {
+            List<Object> row = new ArrayList<>(this.kinds.length);
+            for(int i = 0 ; i < this.kinds.length ; i ++) {
+                int index = this.partialIndexes[i];
+                Object value = merged[index];
+                if(this.kinds[i] == AVG) {
+                    value = divide(merged[index], merged[index + 1]);
+                }
+                row.add(converters[i].convert(value));
+            }
+            results.add(row);
+        }
+        return results;
+    }
+    
+    static Object add(Object a, Object b) {
+        if(!(a instanceof Number)) {
+            return b;
+        } else if(!(b instanceof Number)) {
+            return a;
+        }
+        if(a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+            return ((Number)a).doubleValue() + ((Number)b).doubleValue();
+        } else if(a instanceof BigDecimal || b instanceof BigDecimal) {
+            return toBigDecimal((Number)a).add(toBigDecimal((Number)b));
+        } else if(a instanceof BigInteger || b instanceof BigInteger) {
+            return toBigDecimal((Number)a).add(toBigDecimal((Number)b)).toBigInteger();
+        }
+        long x = ((Number)a).longValue();
+        long y = ((Number)b).longValue();
+        long r = x + y;
+        if(((x ^ r) & (y ^ r)) < 0) { // overflow
+            return BigInteger.valueOf(x).add(BigInteger.valueOf(y));
+        }
+        return r;
+    }
+    
+    static Object divide(Object sum, Object count) {
+        if(!(sum instanceof Number) || !(count instanceof Number) || ((Number)count).longValue() == 0) {
+            return null;
+        }
+        if(sum instanceof BigDecimal || sum instanceof BigInteger) {
+            return toBigDecimal((Number)sum).divide(toBigDecimal((Number)count), MathContext.DECIMAL128);
+        }
+        return ((Number)sum).doubleValue() / ((Number)count).longValue();
+    }
+    
+    private static BigDecimal toBigDecimal(Number n) {
+        if(n instanceof BigDecimal) {
+            return (BigDecimal) n;
+        } else if(n instanceof BigInteger) {
+            return new BigDecimal((BigInteger) n);
+        } else if(n instanceof Double || n instanceof Float) {
+            return BigDecimal.valueOf(n.doubleValue());
+        }
+        return BigDecimal.valueOf(n.longValue());
+    }
+    
+    /**
+     * A null, the aggregate of a partition without values, never be the result of the max or min.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Object extreme(Object a, Object b, boolean max) {
+        if(a == null) {
+            return b;
+        } else if(b == null) {
+            return a;
+        }
+        int c = ((Comparable)a).compareTo(b);
+        return (max ? c >= 0 : c <= 0) ? a : b;
+    }
+
+    public Select getPartialSelect() {
+        return partialSelect;
+    }
+}
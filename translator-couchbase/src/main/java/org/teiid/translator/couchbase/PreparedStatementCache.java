@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * A LRU cache of the named N1QL prepared statements, keyed by the N1QL generated by
+ * {@link N1QLVisitor} with literals pulled out as positional parameters, so the queries
+ * with same shape share one prepared plan.
+ * 
+ * A named statement stays in the server until it be deleted, the names evicted, invalidated or 
+ * replaced be collected, the caller deletes them from {@code system:prepareds} via 
+ * {@link #drainRemoved()}, so a churning cache not leak plans in the server.
+ *
+ * @author kylin
+ *
+ */
+public class PreparedStatementCache {
+    
+    /*
+     * 4040 - no such prepared statement, 4050 - unrecognizable prepared statement,
+     * 4070 - unable to decode prepared statement, the plan need be prepared again.
+     */
+    private static final int[] PLAN_INVALIDATED_CODES = new int[] {4040, 4050, 4070};
+    
+    private static final String NAME_PREFIX = "teiid_"; //$NON-NLS-1$
+    
+    private final int maxSize;
+    private final Map<String, String> statements;
+    private final List<String> removed = new ArrayList<>();
+    
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    
+    public PreparedStatementCache(int maxSize) {
+        this.maxSize = maxSize > 0 ? maxSize : 1;
+        this.statements = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = -3371297424366543046L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if(size() > PreparedStatementCache.this.maxSize) {
+                    PreparedStatementCache.this.removed.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * @param statement - the N1QL statement
+     * @return the prepared name of the statement, or null if not prepared
+     */
+    public synchronized String get(String statement) {
+        String name = this.statements.get(statement);
+        if(name == null) {
+            this.missCount.incrementAndGet();
+        } else {
+            this.hitCount.incrementAndGet();
+        }
+        return name;
+    }
+    
+    public synchronized void put(String statement, String name) {
+        String previous = this.statements.put(statement, name);
+        if(previous != null && !previous.equals(name)) {
+            // prepared concurrently by another execution
+            this.removed.add(previous);
+        }
+    }
+    
+    /**
+     * Removes the statement whose plan be invalidated by the server.
+     */
+    public synchronized void invalidate(String statement) {
+        String name = this.statements.remove(statement);
+        if(name != null) {
+            this.removed.add(name);
+        }
+    }
+    
+    /**
+     * @return the names be evicted, invalidated or replaced since the last call, need be deleted from the server
+     */
+    public synchronized List<String> drainRemoved() {
+        if(this.removed.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> results = new ArrayList<>(this.removed);
+        this.removed.clear();
+        return results;
+    }
+    
+    public synchronized int size() {
+        return this.statements.size();
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+    
+    /**
+     * @return a unique name for a new prepared statement
+     */
+    public String generateName() {
+        return NAME_PREFIX + UUID.randomUUID().toString().replace("-", ""); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * @param errors - the errors returned by the query service
+     * @return true if the errors indicate the prepared plan is not valid in the server
+     */
+    public static boolean isPlanInvalidated(List<JsonObject> errors) {
+        if(errors == null) {
+            return false;
+        }
+        for(JsonObject error : errors) {
+            Object code = error.get("code"); //$NON-NLS-1$
+            if(code instanceof Number) {
+                for(int invalidated : PLAN_INVALIDATED_CODES) {
+                    if(((Number)code).intValue() == invalidated) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.IS_ARRAY_TABLE;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.NAMED_TYPE_PAIR;
+import static org.teiid.translator.couchbase.CouchbaseProperties.COLON;
+import static org.teiid.translator.couchbase.CouchbaseProperties.DOCUMENTID;
+import static org.teiid.translator.couchbase.CouchbaseProperties.FALSE_VALUE;
+import static org.teiid.translator.couchbase.CouchbaseProperties.NAME;
+import static org.teiid.translator.couchbase.CouchbaseProperties.TRUE_VALUE;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.teiid.core.TeiidRuntimeException;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.MetadataFactory;
+import org.teiid.metadata.Table;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Persists the tables, columns and array tables be mapped from a keyspace in a local directory, 
+ * so a restart or a redeploy can reuse the schema rather than sample and scan the keyspace again.
+ * 
+ * A cache file is keyed by the namespace, the keyspace, the TypeNameList, the SampleSize and the 
+ * InferSchema of the import. The file also holds a fingerprint of the keyspace, the typed values and 
+ * the shape of a few probe documents of each type, the cached schema be used only if the fingerprint 
+ * of the keyspace not changed, otherwise the keyspace be scanned and the file be rewritten.
+ * 
+ * A typed table be named with the keyspace as prefix if another keyspace already has a table of the 
+ * same typed value, the names depend on the keyspaces be imported before, so the cached tables be 
+ * replayed only if the names the scan would give them now still are the cached names.
+ * 
+ * @author kylin
+ *
+ */
+public class SchemaCache {
+    
+    /**
+     * The number of documents per type be fetched to compute the fingerprint.
+     */
+    static final int PROBE_SIZE = 10;
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private static final String FILE_PREFIX = "couchbase-"; //$NON-NLS-1$
+    private static final String FILE_SUFFIX = ".json"; //$NON-NLS-1$
+    
+    private static final String KEY = "key"; //$NON-NLS-1$
+    private static final String FINGERPRINT = "fingerprint"; //$NON-NLS-1$
+    private static final String TABLES = "tables"; //$NON-NLS-1$
+    private static final String COLUMNS = "columns"; //$NON-NLS-1$
+    private static final String NAME_IN_SOURCE = "nameInSource"; //$NON-NLS-1$
+    private static final String TYPED_NAME = "typedName"; //$NON-NLS-1$
+    private static final String NAMED_TYPE = "namedTypePair"; //$NON-NLS-1$
+    private static final String REFERENCE = "reference"; //$NON-NLS-1$
+    private static final String TYPE = "type"; //$NON-NLS-1$
+    private static final String UPDATABLE = "updatable"; //$NON-NLS-1$
+    
+    private final Path directory;
+    
+    public SchemaCache(String directory) {
+        this.directory = Paths.get(directory);
+    }
+    
+    /**
+     * @return the key of the cache file of a keyspace, any change of the import properties be used 
+     *         in the scan results in a different key
+     */
+    static String key(String namespace, String keyspace, String typeNameList, int sampleSize, boolean inferSchema, boolean adaptiveSampling, long timeBudget, long byteBudget) {
+        String key = namespace + COLON + keyspace + COLON + typeNameList + COLON + sampleSize + COLON + inferSchema;
+        if(adaptiveSampling) {
+            // the budgets bound the documents be scanned only if the sampling is adaptive
+            key += COLON + "adaptive" + COLON + timeBudget + COLON + byteBudget; //$NON-NLS-1$
+        }
+        return key;
+    }
+    
+    /**
+     * The fingerprint of a keyspace, the hash of the typed values and of the attribute paths and value 
+     * types of the probe documents. The attribute values not be part of the fingerprint, the updates of the 
+     * documents not invalidate the cache as long as the shape of the documents not changed.
+     * 
+     * @param names - the typed values of the keyspace, or the keyspace name if the keyspace not typed
+     * @param probes - the probe documents of each typed value
+     */
+    static String fingerprint(List<String> names, List<List<JsonObject>> probes) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0 ; i < names.size() ; i ++) {
+            sb.append(names.get(i)).append('\n');
+            for(JsonObject document : probes.get(i)) {
+                TreeSet<String> shape = new TreeSet<>();
+                shape(null, document, shape);
+                sb.append(shape).append('\n');
+            }
+        }
+        return digest(sb.toString());
+    }
+    
+    private static void shape(String path, Object value, TreeSet<String> shape) {
+        if(value instanceof JsonObject) {
+            JsonObject json = (JsonObject) value;
+            for(String name : json.getNames()) {
+                shape(path == null ? name : path + '.' + name, json.get(name), shape);
+            }
+        } else if(value instanceof JsonArray) {
+            JsonArray array = (JsonArray) value;
+            shape.add(path + "[]"); //$NON-NLS-1$
+            for(int i = 0 ; i < array.size() ; i ++) {
+                shape(path + "[]", array.get(i), shape); //$NON-NLS-1$
+            }
+        } else {
+            shape.add(path + COLON + (value == null ? null : value.getClass().getSimpleName()));
+        }
+    }
+    
+    /**
+     * Loads the cached schema of a keyspace.
+     * @param key - the key of the keyspace, built by {@link #key(String, String, String, int, boolean, boolean, long, long)}
+     * @param fingerprint - the current fingerprint of the keyspace
+     * @return the cached schema, null if no cache file, the file not readable, or the fingerprint changed
+     */
+    public JsonObject load(String key, String fingerprint) {
+        JsonObject cached = load(key);
+        if(cached != null && !fingerprint.equals(cached.getString(FINGERPRINT))) {
+            LogManager.logDetail(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29036, key, file(key)));
+            return null;
+        }
+        return cached;
+    }
+    
+    private JsonObject load(String key) {
+        Path file = file(key);
+        if(!Files.isReadable(file)) {
+            return null;
+        }
+        try {
+            JsonObject cached = JsonObject.fromJson(new String(Files.readAllBytes(file), UTF_8));
+            return key.equals(cached.getString(KEY)) ? cached : null;
+        } catch (IOException | RuntimeException e) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29035, file, e.getMessage()));
+            return null;
+        }
+    }
+    
+    /**
+     * Replaces the cached tables of a keyspace and keeps the fingerprint, so the next import replays the 
+     * updated tables. Nothing be written if the keyspace not cached yet.
+     * @return true if the cache file be updated
+     */
+    public boolean update(String key, Map<String, Table> typed, Collection<Table> tables) {
+        JsonObject cached = load(key);
+        if(cached == null) {
+            return false;
+        }
+        store(key, cached.getString(FINGERPRINT), typed, tables);
+        return true;
+    }
+    
+    /**
+     * Writes the schema of a keyspace, the file be replaced atomically, a failure only be logged.
+     * @param key - the key of the keyspace
+     * @param fingerprint - the fingerprint of the keyspace the schema be scanned from
+     * @param typed - the tables be mapped from the keyspace keyed by the typed value
+     * @param tables - all tables be mapped from the keyspace include the array tables, in the order of creation
+     */
+    public void store(String key, String fingerprint, Map<String, Table> typed, Collection<Table> tables) {
+        
+        JsonObject cached = JsonObject.create().put(KEY, key).put(FINGERPRINT, fingerprint).put(TABLES, snapshot(typed, tables));
+        
+        Path file = file(key);
+        try {
+            Files.createDirectories(this.directory);
+            Path temp = Files.createTempFile(this.directory, FILE_PREFIX, null);
+            try {
+                Files.write(temp, cached.toString().getBytes(UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29035, file, e.getMessage()));
+        }
+    }
+    
+    /**
+     * @param typed - the tables be mapped from a keyspace keyed by the typed value
+     * @param tables - all tables be mapped from the keyspace include the array tables, in the order of creation
+     * @return the tables and columns as json, in the format of the cache file
+     */
+    static JsonArray snapshot(Map<String, Table> typed, Collection<Table> tables) {
+        Map<Table, String> typedNames = new HashMap<>();
+        for(Map.Entry<String, Table> entry : typed.entrySet()) {
+            typedNames.put(entry.getValue(), entry.getKey());
+        }
+        JsonArray array = JsonArray.create();
+        for(Table table : tables) {
+            array.add(toJson(table, typedNames.get(table)));
+        }
+        return array;
+    }
+    
+    /**
+     * Compares two snapshots of a keyspace.
+     * @return the tables, columns and column types the current snapshot added or changed, like 
+     *         {@code ADD TABLE Customer_Phones}, {@code ADD COLUMN Customer.Email string} or 
+     *         {@code ALTER COLUMN Oder.CreditCard_CVN integer TO object}
+     */
+    static List<String> diff(JsonArray baseline, JsonArray current) {
+        Map<String, Map<String, String>> types = new HashMap<>();
+        for(int i = 0 ; i < baseline.size() ; i ++) {
+            JsonObject table = baseline.getObject(i);
+            Map<String, String> columns = new HashMap<>();
+            JsonArray array = table.getArray(COLUMNS);
+            for(int j = 0 ; j < array.size() ; j ++) {
+                columns.put(array.getObject(j).getString(NAME), array.getObject(j).getString(TYPE));
+            }
+            types.put(table.getString(NAME), columns);
+        }
+        
+        List<String> results = new ArrayList<>();
+        for(int i = 0 ; i < current.size() ; i ++) {
+            JsonObject table = current.getObject(i);
+            String tableName = table.getString(NAME);
+            Map<String, String> columns = types.get(tableName);
+            if(columns == null) {
+                results.add("ADD TABLE " + tableName); //$NON-NLS-1$
+                continue;
+            }
+            JsonArray array = table.getArray(COLUMNS);
+            for(int j = 0 ; j < array.size() ; j ++) {
+                String name = array.getObject(j).getString(NAME);
+                String type = array.getObject(j).getString(TYPE);
+                String existing = columns.get(name);
+                if(existing == null) {
+                    results.add("ADD COLUMN " + tableName + '.' + name + ' ' + type); //$NON-NLS-1$
+                } else if(!existing.equals(type)) {
+                    results.add("ALTER COLUMN " + tableName + '.' + name + ' ' + existing + " TO " + type); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+        }
+        return results;
+    }
+    
+    private static JsonObject toJson(Table table, String typedName) {
+        JsonObject json = JsonObject.create().put(NAME, table.getName()).put(NAME_IN_SOURCE, table.getNameInSource());
+        if(typedName != null) {
+            json.put(TYPED_NAME, typedName);
+        }
+        String namedTypePair = table.getProperty(NAMED_TYPE_PAIR, false);
+        if(namedTypePair != null) {
+            json.put(NAMED_TYPE, namedTypePair);
+        }
+        if(!table.getForeignKeys().isEmpty()) {
+            json.put(REFERENCE, table.getForeignKeys().get(0).getReferenceKey().getParent().getName());
+        }
+        JsonArray columns = JsonArray.create();
+        for(Column column : table.getColumns()) {
+            JsonObject columnJson = JsonObject.create().put(NAME, column.getName()).put(TYPE, column.getDatatype().getName()).put(UPDATABLE, column.isUpdatable());
+            if(column.getNameInSource() != null) {
+                columnJson.put(NAME_IN_SOURCE, column.getNameInSource());
+            }
+            columns.add(columnJson);
+        }
+        return json.put(COLUMNS, columns);
+    }
+    
+    /**
+     * @param cached - the cached schema returned by {@link #load(String, String)}
+     * @return the names of the cached tables keyed by the typed value, not include the array tables
+     */
+    public static Map<String, String> typedTables(JsonObject cached) {
+        JsonArray tables = cached.getArray(TABLES);
+        Map<String, String> results = new LinkedHashMap<>();
+        for(int i = 0 ; i < tables.size() ; i ++) {
+            JsonObject json = tables.getObject(i);
+            if(json.getString(TYPED_NAME) != null) {
+                results.put(json.getString(TYPED_NAME), json.getString(NAME));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Adds the cached tables to the {@code MetadataFactory}, in the same way as the scan adds them.
+     * @param mf
+     * @param cached - the cached schema returned by {@link #load(String, String)}
+     * @return the tables be mapped from the keyspace keyed by the typed value, not include the array tables, 
+     *         or null if a cached table name already used by a table of another keyspace, the keyspace need be scanned
+     */
+    public Map<String, Table> replay(MetadataFactory mf, JsonObject cached) {
+        return replay(mf, cached.getArray(TABLES));
+    }
+    
+    /**
+     * Adds the tables of a snapshot to the {@code MetadataFactory}.
+     * @see #replay(MetadataFactory, JsonObject)
+     */
+    static Map<String, Table> replay(MetadataFactory mf, JsonArray tables) {
+        
+        for(int i = 0 ; i < tables.size() ; i ++) {
+            if(mf.getSchema().getTable(tables.getObject(i).getString(NAME)) != null) {
+                return null;
+            }
+        }
+        
+        Map<String, Table> results = new LinkedHashMap<>();
+        for(int i = 0 ; i < tables.size() ; i ++) {
+            JsonObject json = tables.getObject(i);
+            String reference = json.getString(REFERENCE);
+            
+            Table table = mf.addTable(json.getString(NAME));
+            table.setNameInSource(json.getString(NAME_IN_SOURCE));
+            table.setSupportsUpdate(true);
+            table.setProperty(IS_ARRAY_TABLE, reference == null ? FALSE_VALUE : TRUE_VALUE);
+            if(json.getString(NAMED_TYPE) != null) {
+                table.setProperty(NAMED_TYPE_PAIR, json.getString(NAMED_TYPE));
+            }
+            
+            JsonArray columns = json.getArray(COLUMNS);
+            for(int j = 0 ; j < columns.size() ; j ++) {
+                JsonObject columnJson = columns.getObject(j);
+                Column column = mf.addColumn(columnJson.getString(NAME), columnJson.getString(TYPE), table);
+                column.setUpdatable(columnJson.getBoolean(UPDATABLE));
+                if(columnJson.getString(NAME_IN_SOURCE) != null) {
+                    column.setNameInSource(columnJson.getString(NAME_IN_SOURCE));
+                }
+            }
+            
+            if(reference == null) {
+                mf.addPrimaryKey("PK0", Arrays.asList(DOCUMENTID), table); //$NON-NLS-1$
+                results.put(json.getString(TYPED_NAME), table);
+            } else {
+                mf.addForiegnKey("FK0", Arrays.asList(DOCUMENTID), reference, table); //$NON-NLS-1$
+            }
+        }
+        return results;
+    }
+    
+    private Path file(String key) {
+        return this.directory.resolve(FILE_PREFIX + digest(key) + FILE_SUFFIX);
+    }
+    
+    private static String digest(String value) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF_8)); //$NON-NLS-1$
+            StringBuilder sb = new StringBuilder();
+            for(byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new TeiidRuntimeException(e);
+        }
+    }
+}
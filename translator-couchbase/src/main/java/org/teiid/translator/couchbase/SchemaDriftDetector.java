@@ -0,0 +1,367 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.IS_ARRAY_TABLE;
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.NAMED_TYPE_PAIR;
+import static org.teiid.translator.couchbase.CouchbaseProperties.COLON;
+import static org.teiid.translator.couchbase.CouchbaseProperties.FALSE_VALUE;
+import static org.teiid.translator.couchbase.CouchbaseProperties.WAVE;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.ResourceException;
+import javax.resource.cci.ConnectionFactory;
+
+import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.logging.LogConstants;
+import org.teiid.logging.LogManager;
+import org.teiid.metadata.Datatype;
+import org.teiid.metadata.ForeignKey;
+import org.teiid.metadata.MetadataFactory;
+import org.teiid.metadata.Schema;
+import org.teiid.metadata.Table;
+import org.teiid.translator.couchbase.CouchbaseMetadataProcessor.Dimension;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlParams;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+/**
+ * Detects the schema drift of the imported keyspaces in the background. Each round samples the 
+ * documents changed since the last round of every table be mapped from a keyspace, scans them into 
+ * a copy of the imported tables, and publishes the difference, the new tables, the new columns and 
+ * the columns widened to object.
+ * 
+ * The delta be logged, and be written to the schema cache of the import if the import has a 
+ * SchemaCacheDirectory, so a reload of the VDB replays the refreshed tables rather than scan the 
+ * keyspace again. The deployed metadata be not changed.
+ * 
+ * The changed documents be found by the CAS of the documents, the CAS is the nanoseconds of the last 
+ * mutation. The documents be read in {@code (meta().cas, meta().id)} order and the next round seeks 
+ * after the last document read, so no change be skipped if more documents changed than the sample 
+ * size, an index on {@code (meta().cas, meta().id)} serves both the seek and the order without a 
+ * primary scan or a sort. The rounds run in a single daemon 
+ * thread, each query runs with {@code max_parallelism} 1 and a server side timeout and reads no more 
+ * than the sample size documents, so the detection not compete with the production queries.
+ * 
+ * @author kylin
+ *
+ */
+public class SchemaDriftDetector implements Runnable {
+    
+    private static final String CAS = "CAS"; //$NON-NLS-1$
+    private static final String ID = "ID"; //$NON-NLS-1$
+    
+    private final long interval;
+    private final int sampleSize;
+    private final long queryTimeout;
+    
+    private final Map<String, Registration> registrations = Collections.synchronizedMap(new LinkedHashMap<String, Registration>());
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * @param interval - the seconds between two rounds
+     * @param sampleSize - the maximum number of changed documents be sampled per table in a round
+     * @param queryTimeout - the server side timeout of a query in milliseconds
+     */
+    public SchemaDriftDetector(long interval, int sampleSize, long queryTimeout) {
+        this.interval = interval;
+        this.sampleSize = sampleSize;
+        this.queryTimeout = queryTimeout;
+    }
+    
+    /**
+     * The imported schema of a model, the baseline of the keyspaces be the tables the last round published.
+     * 
+     * The deployed schema be referenced weakly, once the VDB undeployed and the schema collected, the 
+     * registration be dropped, only the names, the shared data types and the baselines be kept otherwise.
+     */
+    static class Registration {
+        
+        final String vdbName;
+        final Object vdbVersion;
+        final String schemaName;
+        final Map<String, Datatype> dataTypes;
+        final WeakReference<Schema> schema;
+        final CouchbaseMetadataProcessor processor;
+        final Map<String, JsonArray> baselines = new LinkedHashMap<>();
+        final Map<String, Long> watermarks = new HashMap<>();
+        final Map<String, String> watermarkKeys = new HashMap<>();
+        final ConnectionFactory connectionFactory;
+        
+        Registration(MetadataFactory mf, CouchbaseMetadataProcessor processor, ConnectionFactory connectionFactory) {
+            this.vdbName = mf.getVdbName();
+            this.vdbVersion = mf.getVdbVersion();
+            this.schemaName = mf.getSchema().getName();
+            this.dataTypes = mf.getDataTypes();
+            this.schema = new WeakReference<>(mf.getSchema());
+            this.processor = processor;
+            this.connectionFactory = connectionFactory;
+        }
+        
+        String getKey() {
+            return this.vdbName + COLON + this.vdbVersion + COLON + this.schemaName;
+        }
+    }
+    
+    /**
+     * Registers the schema of a import, replaces the previous registration of the same model, the first 
+     * round starts after the interval.
+     * @param mf - the {@code MetadataFactory} of the import, holds the imported schema
+     * @param processor - a processor with the import properties of the model
+     * @param connectionFactory - the connection factory the model be imported from, the rounds get the connection 
+     *        from, null if the import not got a connection from a factory, the model then not be probed. A factory 
+     *        of another model never be used, the documents of a foreign bucket must not rewrite the schema
+     */
+    public synchronized void register(MetadataFactory mf, CouchbaseMetadataProcessor processor, ConnectionFactory connectionFactory) {
+        
+        Registration registration = new Registration(mf, processor, connectionFactory);
+        long watermark = System.currentTimeMillis() * 1000000L;
+        
+        Map<String, Map<String, Table>> typed = new LinkedHashMap<>();
+        Map<String, List<Table>> tables = new LinkedHashMap<>();
+        Map<String, String> keyspaces = new HashMap<>();
+        Schema schema = mf.getSchema();
+        for(Table table : schema.getTables().values()) {
+            if(FALSE_VALUE.equals(table.getProperty(IS_ARRAY_TABLE, false))) {
+                String keyspace = trimWave(table.getNameInSource());
+                keyspaces.put(table.getName(), keyspace);
+                if(!typed.containsKey(keyspace)) {
+                    typed.put(keyspace, new LinkedHashMap<String, Table>());
+                    tables.put(keyspace, new ArrayList<Table>());
+                }
+                typed.get(keyspace).put(typedValue(table, keyspace), table);
+                registration.watermarks.put(table.getName(), watermark);
+            }
+        }
+        for(Table table : schema.getTables().values()) {
+            String keyspace = null;
+            if(FALSE_VALUE.equals(table.getProperty(IS_ARRAY_TABLE, false))) {
+                keyspace = keyspaces.get(table.getName());
+            } else {
+                for(ForeignKey fk : table.getForeignKeys()) {
+                    keyspace = keyspaces.get(fk.getReferenceKey().getParent().getName());
+                }
+            }
+            if(keyspace != null) {
+                tables.get(keyspace).add(table);
+            }
+        }
+        for(Map.Entry<String, Map<String, Table>> entry : typed.entrySet()) {
+            registration.baselines.put(entry.getKey(), SchemaCache.snapshot(entry.getValue(), tables.get(entry.getKey())));
+        }
+        
+        this.registrations.put(registration.getKey(), registration);
+        
+        if(this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Couchbase Schema Drift Detector"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }});
+            this.scheduler.scheduleWithFixedDelay(this, this.interval, this.interval, TimeUnit.SECONDS);
+        }
+    }
+    
+    /**
+     * Removes the registration of a model, the background thread stops once no registration left.
+     */
+    public synchronized void unregister(String vdbName, Object vdbVersion, String schemaName) {
+        this.registrations.remove(vdbName + COLON + vdbVersion + COLON + schemaName);
+        if(this.registrations.isEmpty()) {
+            shutdown();
+        }
+    }
+    
+    /**
+     * @return the registration of a model, null if not registered
+     */
+    Registration getRegistration(String vdbName, Object vdbVersion, String schemaName) {
+        return this.registrations.get(vdbName + COLON + vdbVersion + COLON + schemaName);
+    }
+    
+    /**
+     * Stops the background thread and drops all registrations.
+     */
+    public synchronized void shutdown() {
+        this.registrations.clear();
+        if(this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+    
+    /**
+     * Executes a round over all registered schemas, the registrations whose schema be undeployed be dropped.
+     */
+    @Override
+    public void run() {
+        List<Registration> list;
+        synchronized (this.registrations) {
+            list = new ArrayList<>(this.registrations.values());
+        }
+        for(Registration registration : list) {
+            if(registration.schema.get() == null) {
+                unregister(registration.vdbName, registration.vdbVersion, registration.schemaName);
+                continue;
+            }
+            ConnectionFactory factory = registration.connectionFactory;
+            if(factory == null) {
+                continue;
+            }
+            CouchbaseConnection conn = null;
+            try {
+                conn = (CouchbaseConnection) factory.getConnection();
+                for(String keyspace : new ArrayList<>(registration.baselines.keySet())) {
+                    detect(conn, registration, keyspace);
+                }
+            } catch (ResourceException | RuntimeException e) {
+                LogManager.logWarning(LogConstants.CTX_CONNECTOR, e, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29040, e.getMessage()));
+            } finally {
+                if(conn != null) {
+                    try {
+                        conn.close();
+                    } catch (ResourceException e) {
+                        LogManager.logDetail(LogConstants.CTX_CONNECTOR, e, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Scans the documents of a keyspace changed since the last round into a copy of the baseline tables.
+     * @return the delta against the baseline, empty if no drift
+     */
+    List<String> detect(CouchbaseConnection conn, Registration registration, String keyspace) {
+        
+        JsonArray baseline = registration.baselines.get(keyspace);
+        MetadataFactory scratch = new MetadataFactory(registration.vdbName, registration.vdbVersion, registration.schemaName, registration.dataTypes, new Properties(), null);
+        Map<String, Table> typed = SchemaCache.replay(scratch, baseline);
+        
+        for(Table table : typed.values()) {
+            for(JsonObject document : loadChangedDocuments(conn, registration, keyspace, table)) {
+                registration.processor.scanRow(keyspace, table.getNameInSource(), document, scratch, table, table.getName(), false, new Dimension());
+            }
+        }
+        
+        JsonArray current = SchemaCache.snapshot(typed, scratch.getSchema().getTables().values());
+        List<String> delta = SchemaCache.diff(baseline, current);
+        if(!delta.isEmpty()) {
+            registration.baselines.put(keyspace, current);
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29039, registration.schemaName, keyspace, delta));
+            registration.processor.updateSchemaCache(conn.getNamespace(), keyspace, typed, scratch.getSchema().getTables().values());
+        }
+        return delta;
+    }
+    
+    private List<JsonObject> loadChangedDocuments(CouchbaseConnection conn, Registration registration, String keyspace, Table table) {
+        
+        Long watermark = registration.watermarks.get(table.getName());
+        String watermarkKey = registration.watermarkKeys.get(table.getName());
+        JsonArray parameters = JsonArray.from(watermark == null ? 0L : watermark);
+        String alias = WAVE + keyspace + WAVE;
+        String cas = "meta(" + alias + ").cas"; //$NON-NLS-1$ //$NON-NLS-2$
+        String id = "meta(" + alias + ").id"; //$NON-NLS-1$ //$NON-NLS-2$
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ").append(cas).append(" AS ").append(CAS).append(", ").append(id).append(" AS ").append(ID).append(", ").append(alias); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        sb.append(" FROM ").append(WAVE).append(conn.getNamespace()).append(WAVE).append(COLON).append(alias); //$NON-NLS-1$
+        sb.append(" WHERE (").append(cas).append(" > $1"); //$NON-NLS-1$ //$NON-NLS-2$
+        if(watermarkKey != null) {
+            // the documents of a same CAS may be split by the LIMIT, seek after the last document read
+            sb.append(" OR (").append(cas).append(" = $1 AND ").append(id).append(" > $2)"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            parameters.add(watermarkKey);
+        }
+        sb.append(")"); //$NON-NLS-1$
+        String namedTypePair = table.getProperty(NAMED_TYPE_PAIR, false);
+        if(namedTypePair != null) {
+            int index = namedTypePair.indexOf(WAVE + COLON) + 1;
+            sb.append(" AND ").append(namedTypePair.substring(0, index)).append(" = ").append(namedTypePair.substring(index + 1)); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        sb.append(" ORDER BY ").append(cas).append(" ASC, ").append(id).append(" ASC"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        sb.append(" LIMIT ").append(this.sampleSize); //$NON-NLS-1$
+        String query = sb.toString();
+        
+        LogManager.logTrace(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29003, query));
+        N1qlParams params = N1qlParams.build().maxParallelism(1).serverSideTimeout(this.queryTimeout, TimeUnit.MILLISECONDS);
+        N1qlQueryResult result = conn.executeQuery(N1qlQuery.parameterized(query, parameters, params));
+        List<JsonObject> results = new ArrayList<>();
+        if(!result.finalSuccess()) {
+            LogManager.logWarning(LogConstants.CTX_CONNECTOR, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29040, result.errors()));
+            return results;
+        }
+        for(N1qlQueryRow row : result.allRows()) {
+            JsonObject value = row.value();
+            // the rows be in the seek order, the last one be the watermark of the next round
+            Object last = value.get(CAS);
+            if(last instanceof Number && value.getString(ID) != null) {
+                registration.watermarks.put(table.getName(), ((Number) last).longValue());
+                registration.watermarkKeys.put(table.getName(), value.getString(ID));
+            }
+            JsonObject document = value.getObject(keyspace);
+            if(document != null) {
+                results.add(document);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * @return the typed value of a table, like Customer of the named type pair {@code `type`:'Customer'}, or the keyspace if not typed 
+     */
+    private static String typedValue(Table table, String keyspace) {
+        String namedTypePair = table.getProperty(NAMED_TYPE_PAIR, false);
+        if(namedTypePair == null) {
+            return keyspace;
+        }
+        String value = namedTypePair.substring(namedTypePair.indexOf(WAVE + COLON) + 2);
+        return value.substring(1, value.length() - 1);
+    }
+    
+    private static String trimWave(String value) {
+        String result = value;
+        if(result.startsWith(WAVE)) {
+            result = result.substring(1);
+        }
+        if(result.endsWith(WAVE)) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.NAMED_TYPE_PAIR;
+import static org.teiid.translator.couchbase.CouchbaseProperties.COLON;
+import static org.teiid.translator.couchbase.CouchbaseProperties.WAVE;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.ColumnStats;
+import org.teiid.metadata.Table;
+import org.teiid.metadata.TableStats;
+import org.teiid.translator.TranslatorException;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
+
+/**
+ * Gathers the statistics of a table be mapped from a keyspace for the cost based planner, the 
+ * cardinality be the count of the documents of the table, the number of distinct values and nulls
+ * of each column be estimated from a sample of the documents.
+ *
+ * The distinct values be estimated with the GEE estimator, the values seen once in the sample be
+ * scaled up by {@code sqrt(N/n)}, the values seen more than once be counted once, a column be unique 
+ * in the sample be assumed unique in the table.
+ *
+ * @author kylin
+ *
+ */
+public class TableStatistics {
+    
+    private static final String ALIAS = "`$cb_s`"; //$NON-NLS-1$
+    
+    private final Table table;
+    
+    private int sampled;
+    private final Map<Column, Map<Object, Integer>> values = new HashMap<>();
+    
+    public TableStatistics(Table table) {
+        this.table = table;
+    }
+    
+    public Table getTable() {
+        return table;
+    }
+    
+    /**
+     * Counts the values of the columns in a sampled document.
+     * @param document - the document of the keyspace, without the keyspace wrapper
+     */
+    public void sample(JsonObject document) {
+        this.sampled++;
+        for(Column column : this.table.getColumns()) {
+            if(column.getNameInSource() == null) {
+                continue;
+            }
+            Object value = path(document, column.getNameInSource());
+            if(value == null) {
+                continue;
+            }
+            Map<Object, Integer> counts = this.values.get(column);
+            if(counts == null) {
+                counts = new HashMap<>();
+                this.values.put(column, counts);
+            }
+            Integer count = counts.get(value);
+            counts.put(value, count == null ? 1 : count + 1);
+        }
+    }
+    
+    /**
+     * Samples the documents of the table.
+     */
+    public void sample(CouchbaseConnection connection, int sampleSize) throws TranslatorException {
+        String query = "SELECT " + ALIAS + " FROM " + from(connection, this.table.getNameInSource(), this.table.getProperty(NAMED_TYPE_PAIR, false)) + " LIMIT " + sampleSize; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        for(N1qlQueryRow row : execute(connection, query)) {
+            JsonObject document = row.value().getObject(ALIAS.substring(1, ALIAS.length() - 1));
+            if(document != null) {
+                sample(document);
+            }
+        }
+    }
+    
+    /**
+     * @return the number of the documents of the table
+     */
+    public long count(CouchbaseConnection connection) throws TranslatorException {
+        return count(connection, this.table.getNameInSource(), this.table.getProperty(NAMED_TYPE_PAIR, false));
+    }
+    
+    /**
+     * @param keyspace - the name in source of the keyspace
+     * @param typedPair - the named type pair of a typed table, or null
+     * @return the number of the documents of the keyspace, or of the type
+     */
+    public static long count(CouchbaseConnection connection, String keyspace, String typedPair) throws TranslatorException {
+        String query = "SELECT COUNT(*) AS cnt FROM " + from(connection, keyspace, typedPair); //$NON-NLS-1$
+        List<N1qlQueryRow> rows = execute(connection, query);
+        Object count = rows.isEmpty() ? null : rows.get(0).value().get("cnt"); //$NON-NLS-1$
+        return count instanceof Number ? ((Number) count).longValue() : 0;
+    }
+    
+    private static String from(CouchbaseConnection connection, String keyspace, String typedPair) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(WAVE).append(connection.getNamespace()).append(WAVE).append(COLON);
+        sb.append(keyspace).append(' ').append(ALIAS);
+        if(typedPair != null && typedPair.length() > 0) {
+            String[] pair = typedPair.split(COLON);
+            sb.append(" WHERE ").append(ALIAS).append('.').append(pair[0]).append(" = ").append(pair[1]); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return sb.toString();
+    }
+    
+    private static List<N1qlQueryRow> execute(CouchbaseConnection connection, String n1ql) throws TranslatorException {
+        N1qlQueryResult result = connection.executeQuery(n1ql);
+        if(!result.finalSuccess()) {
+            throw new TranslatorException(CouchbasePlugin.Event.TEIID29031, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29031, n1ql, result.errors()));
+        }
+        return result.allRows();
+    }
+    
+    /**
+     * Sets the cardinality of the table, and the distinct values and nulls of the columns be estimated 
+     * from the sampled documents, only be used on the tables of a {@code MetadataFactory} be imported.
+     * @param cardinality - the number of the documents of the table
+     */
+    public void apply(long cardinality) {
+        this.table.setTableStats(getTableStats(cardinality));
+        for(Map.Entry<Column, ColumnStats> entry : getColumnStats(cardinality).entrySet()) {
+            entry.getKey().setColumnStats(entry.getValue());
+        }
+    }
+    
+    /**
+     * @param cardinality - the number of the documents of the table
+     * @return the cardinality of the table
+     */
+    public TableStats getTableStats(long cardinality) {
+        TableStats stats = new TableStats();
+        stats.setCardinality(cardinality);
+        return stats;
+    }
+    
+    /**
+     * @param cardinality - the number of the documents of the table
+     * @return the distinct values and nulls of the columns be estimated from the sampled documents, 
+     *         the columns not be estimated if no document be sampled, except the documentID
+     */
+    public Map<Column, ColumnStats> getColumnStats(long cardinality) {
+        Map<Column, ColumnStats> results = new LinkedHashMap<>();
+        for(Column column : this.table.getColumns()) {
+            ColumnStats stats = new ColumnStats();
+            if(column.getNameInSource() == null) {
+                // the documentID
+                stats.setDistinctValues(toInt(cardinality));
+                stats.setNullValues(0);
+                results.put(column, stats);
+                continue;
+            }
+            if(this.sampled == 0) {
+                continue;
+            }
+            Map<Object, Integer> counts = this.values.get(column);
+            int nonNulls = 0;
+            int singletons = 0;
+            int distinct = 0;
+            if(counts != null) {
+                distinct = counts.size();
+                for(Integer count : counts.values()) {
+                    nonNulls += count;
+                    if(count == 1) {
+                        singletons++;
+                    }
+                }
+            }
+            long nonNullCardinality = cardinality * nonNulls / this.sampled;
+            stats.setNullValues(toInt(cardinality - nonNullCardinality));
+            stats.setDistinctValues(toInt(estimateDistinct(nonNulls, distinct, singletons, nonNullCardinality)));
+            results.put(column, stats);
+        }
+        return results;
+    }
+    
+    /**
+     * @param sampled - the number of the non null values sampled
+     * @param distinct - the number of the distinct values in the sample
+     * @param singletons - the number of the values seen once in the sample
+     * @param total - the number of the non null values in the table
+     * @return the estimated number of the distinct values in the table
+     */
+    static long estimateDistinct(int sampled, int distinct, int singletons, long total) {
+        if(sampled == 0 || sampled >= total) {
+            return distinct;
+        }
+        if(singletons == sampled) {
+            return total;
+        }
+        long estimate = Math.round(Math.sqrt((double) total / sampled) * singletons) + distinct - singletons;
+        return Math.max(distinct, Math.min(total, estimate));
+    }
+    
+    /**
+     * @param nameInSource - the name in source of a column, like {@code `test`.`CreditCard`.`Type`}
+     * @return the value of the path under the keyspace, null if the path not exist or the value is a null
+     */
+    static Object path(JsonObject document, String nameInSource) {
+        String[] names = nameInSource.substring(1, nameInSource.length() - 1).split(Pattern.quote(WAVE + '.' + WAVE));
+        Object value = document;
+        for(int i = 1 ; i < names.length ; i ++) {
+            if(!(value instanceof JsonObject)) {
+                return null;
+            }
+            value = ((JsonObject) value).get(names[i]);
+        }
+        return value == document ? null : value;
+    }
+    
+    private static int toInt(long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+}
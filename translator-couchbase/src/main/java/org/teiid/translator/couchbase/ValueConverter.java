@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ */
+package org.teiid.translator.couchbase;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.teiid.core.types.ClobImpl;
+import org.teiid.core.types.ClobType;
+import org.teiid.translator.TranslatorException;
+
+/**
+ * Converts a JSON value, a String, Number, Boolean, JsonObject or JsonArray, to the
+ * java type expected by a column. The converter of each column be looked up once per 
+ * execution, and be called for every value of the column.
+ * 
+ * The value be returned as is if it can not be converted, the engine will convert it 
+ * or report the error. A number be never narrowed silently, a value of an integral column
+ * which is not integral or out of the range of the column type be rejected.
+ * 
+ * @author kylin
+ *
+ */
+public abstract class ValueConverter {
+    
+    private static final Map<Class<?>, ValueConverter> CONVERTERS = new HashMap<>();
+    
+    private static final ValueConverter DEFAULT = new ValueConverter() {
+        @Override
+        protected Object doConvert(Object value) throws TranslatorException {
+            return value;
+        }
+    };
+    
+    static {
+        CONVERTERS.put(String.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return value.toString();
+            }
+        });
+        CONVERTERS.put(Integer.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return value instanceof Number ? (int)exact((Number)value, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.class) : value;
+            }
+        });
+        CONVERTERS.put(Long.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return value instanceof Number ? exact((Number)value, Long.MIN_VALUE, Long.MAX_VALUE, Long.class) : value;
+            }
+        });
+        CONVERTERS.put(Short.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return value instanceof Number ? (short)exact((Number)value, Short.MIN_VALUE, Short.MAX_VALUE, Short.class) : value;
+            }
+        });
+        CONVERTERS.put(Byte.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return value instanceof Number ? (byte)exact((Number)value, Byte.MIN_VALUE, Byte.MAX_VALUE, Byte.class) : value;
+            }
+        });
+        CONVERTERS.put(Double.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return value instanceof Number ? ((Number)value).doubleValue() : value;
+            }
+        });
+        CONVERTERS.put(Float.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return value instanceof Number ? ((Number)value).floatValue() : value;
+            }
+        });
+        CONVERTERS.put(BigDecimal.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                if(value instanceof BigDecimal) {
+                    return value;
+                } else if(value instanceof BigInteger) {
+                    return new BigDecimal((BigInteger)value);
+                } else if(value instanceof Double || value instanceof Float) {
+                    return BigDecimal.valueOf(((Number)value).doubleValue());
+                } else if(value instanceof Number) {
+                    return BigDecimal.valueOf(((Number)value).longValue());
+                }
+                return value;
+            }
+        });
+        CONVERTERS.put(BigInteger.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                if(value instanceof BigInteger) {
+                    return value;
+                } else if(value instanceof BigDecimal) {
+                    return ((BigDecimal)value).toBigInteger();
+                } else if(value instanceof Number) {
+                    return BigInteger.valueOf(((Number)value).longValue());
+                }
+                return value;
+            }
+        });
+        CONVERTERS.put(Timestamp.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                if(value instanceof Number) {
+                    return new Timestamp(((Number)value).longValue());
+                } else if(value instanceof String) {
+                    Timestamp timestamp = parseTimestamp((String)value);
+                    return timestamp == null ? value : timestamp;
+                }
+                return value;
+            }
+        });
+        CONVERTERS.put(Date.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                if(value instanceof Number) {
+                    return new Date(((Number)value).longValue());
+                } else if(value instanceof String) {
+                    Timestamp timestamp = parseTimestamp((String)value);
+                    return timestamp == null ? value : Date.valueOf(timestamp.toLocalDateTime().toLocalDate());
+                }
+                return value;
+            }
+        });
+        CONVERTERS.put(Time.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                if(value instanceof Number) {
+                    return new Time(((Number)value).longValue());
+                } else if(value instanceof String) {
+                    try {
+                        return Time.valueOf(LocalTime.parse((String)value));
+                    } catch (DateTimeParseException e) {
+                        Timestamp timestamp = parseTimestamp((String)value);
+                        return timestamp == null ? value : Time.valueOf(timestamp.toLocalDateTime().toLocalTime());
+                    }
+                }
+                return value;
+            }
+        });
+        CONVERTERS.put(ClobType.class, new ValueConverter() {
+            @Override
+            protected Object doConvert(Object value) throws TranslatorException {
+                return new ClobType(new ClobImpl(value.toString()));
+            }
+        });
+    }
+    
+    /**
+     * @return the converter of the java type, never null
+     */
+    public static ValueConverter forType(Class<?> type) {
+        ValueConverter converter = CONVERTERS.get(type);
+        return converter == null ? DEFAULT : converter;
+    }
+    
+    public static ValueConverter[] forTypes(Class<?>[] types) {
+        ValueConverter[] converters = new ValueConverter[types.length];
+        for(int i = 0 ; i < types.length ; i ++) {
+            converters[i] = forType(types[i]);
+        }
+        return converters;
+    }
+    
+    /**
+     * Parses the date time strings N1QL produces, like {@code 2017-01-01}, {@code 2017-01-01T10:00:00}, 
+     * {@code 2017-01-01T10:00:00.123Z}, {@code 2017-01-01T10:00:00+08:00} and {@code 2017-01-01 10:00:00}.
+     * @return the timestamp, or null if not a date time string
+     */
+    static Timestamp parseTimestamp(String value) {
+        try {
+            if(value.length() == 10) {
+                return Timestamp.valueOf(LocalDate.parse(value).atStartOfDay());
+            } else if(value.indexOf('T') > 0) {
+                char last = value.charAt(value.length() - 1);
+                if(last == 'Z' || value.lastIndexOf('+') > 0 || value.lastIndexOf('-') > 10) {
+                    return Timestamp.from(OffsetDateTime.parse(value).toInstant());
+                }
+                return Timestamp.valueOf(LocalDateTime.parse(value));
+            }
+            return Timestamp.valueOf(value);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * @return the integral value of the number, like {@link BigDecimal#longValueExact()}
+     * @throws TranslatorException if the number has a fractional part, or is out of the range
+     */
+    static long exact(Number value, long min, long max, Class<?> type) throws TranslatorException {
+        try {
+            long result;
+            if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                result = value.longValue();
+            } else if(value instanceof BigInteger) {
+                result = ((BigInteger)value).longValueExact();
+            } else if(value instanceof BigDecimal) {
+                result = ((BigDecimal)value).longValueExact();
+            } else if(value instanceof Double || value instanceof Float) {
+                result = new BigDecimal(value.doubleValue()).longValueExact();
+            } else {
+                result = new BigDecimal(value.toString()).longValueExact();
+            }
+            if(result >= min && result <= max) {
+                return result;
+            }
+        } catch (ArithmeticException | NumberFormatException e) {
+            // not integral, out of the long range, NaN or infinite
+        }
+        throw new TranslatorException(CouchbasePlugin.Event.TEIID29041, CouchbasePlugin.Util.gs(CouchbasePlugin.Event.TEIID29041, value, type.getSimpleName()));
+    }
+    
+    public Object convert(Object value) throws TranslatorException {
+        if(value == null) {
+            return null;
+        }
+        return doConvert(value);
+    }
+    
+    protected abstract Object doConvert(Object value) throws TranslatorException;
+}
@@ -33,33 +33,50 @@ import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.IS_ARRAY
 import static org.teiid.translator.couchbase.CouchbaseMetadataProcessor.NAMED_TYPE_PAIR;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.resource.ResourceException;
+import javax.resource.cci.ConnectionFactory;
 
 import org.junit.Ignore;
 import org.junit.Test;
 import org.teiid.core.util.UnitTestUtil;
+import org.teiid.couchbase.CouchbaseConnection;
 import org.teiid.metadata.MetadataFactory;
 import org.teiid.metadata.Table;
 import org.teiid.query.metadata.DDLStringVisitor;
 import org.teiid.query.metadata.SystemMetadata;
+import org.teiid.translator.ExecutionContext;
+import org.teiid.translator.TranslatorException;
 import org.teiid.translator.couchbase.CouchbaseMetadataProcessor.Dimension;
 
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
 import com.couchbase.client.java.document.json.JsonValue;
+import com.couchbase.client.java.query.DefaultAsyncN1qlQueryRow;
+import com.couchbase.client.java.query.DefaultN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQueryRow;
 
 @SuppressWarnings({"nls",})
 public class TestCouchbaseMetadataProcessor {
@@ -212,6 +229,395 @@ public class TestCouchbaseMetadataProcessor {
         helpTest("procedures.expected", mf);
     }
     
+    @Test
+    public void testIndexes() throws ResourceException {
+        
+        CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();  
+        MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        Table customer = createTable(mf, KEYSPACE, "Customer");
+        mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, formCustomer(), mf, customer, customer.getName(), false, new Dimension());
+        Table order = createTable(mf, KEYSPACE, "Oder");
+        mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, formOder(), mf, order, order.getName(), false, new Dimension());
+        mp.addIndexes(mf, Arrays.asList(customer, order), formIndexes());
+        
+        assertEquals(2, customer.getIndexes().size());
+        assertEquals("`idx_name`", customer.getIndexes().get(0).getNameInSource());
+        assertEquals(Arrays.asList(customer.getColumnByName("Name")), customer.getIndexes().get(0).getColumns());
+        assertEquals(1, order.getIndexes().size());
+        assertEquals("idx_name_type", order.getIndexes().get(0).getName());
+    }
+    
+    @Test
+    public void testTableStatistics() throws ResourceException {
+        
+        CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();  
+        MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        Table order = createTable(mf, KEYSPACE, "Oder");
+        TableStatistics statistics = new TableStatistics(order);
+        for(int i = 0 ; i < 10 ; i ++) {
+            JsonObject json = formOder().put("Name", "Ticket " + (i % 5));
+            if(i % 2 == 0) {
+                json.put("CustomerID", "Customer_" + i);
+            } else {
+                json.removeKey("CustomerID");
+            }
+            mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, json, mf, order, order.getName(), false, new Dimension());
+            statistics.sample(json);
+        }
+        statistics.apply(1000);
+        
+        assertEquals(1000, order.getCardinality());
+        assertEquals(1000, order.getColumnByName(DOCUMENTID).getDistinctValues());
+        assertEquals(5, order.getColumnByName("Name").getDistinctValues());
+        assertEquals(0, order.getColumnByName("Name").getNullValues());
+        assertEquals(500, order.getColumnByName("CustomerID").getDistinctValues());
+        assertEquals(500, order.getColumnByName("CustomerID").getNullValues());
+        assertEquals(1, order.getColumnByName("CreditCard_Type").getDistinctValues());
+        assertEquals("Visa", TableStatistics.path(formOder(), "`test`.`CreditCard`.`Type`"));
+    }
+    
+    @Test
+    public void testInferSchema() throws ResourceException {
+        CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();  
+        mp.setTypeNameList("`test`:`type`");
+        MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        JsonArray flavors = JsonArray.from(formCustomerFlavor(), formOderFlavor());
+        Table customer = createTable(mf, KEYSPACE, "Customer");
+        for(JsonObject document : InferredSchema.documents(flavors, "`type`", "Customer")) {
+            mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, document, mf, customer, customer.getName(), false, new Dimension());
+        }
+        Table order = createTable(mf, KEYSPACE, "Oder");
+        for(JsonObject document : InferredSchema.documents(flavors, "`type`", "Oder")) {
+            mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, document, mf, order, order.getName(), false, new Dimension());
+        }
+        helpTest("customerOrderTypedName.expected", mf);
+        
+        JsonObject mixed = JsonObject.create().put("type", "object").put("properties", JsonObject.create()
+                .put("attr", JsonObject.create().put("type", JsonArray.from("number", "string")).put("samples", JsonArray.from(1, "A"))));
+        assertEquals(2, InferredSchema.documents(JsonArray.from(mixed), null, null).size());
+    }
+    
+    @Test
+    public void testSchemaCache() throws Exception {
+        CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();  
+        mp.setTypeNameList("`test`:`type`");
+        MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        Table customer = createTable(mf, KEYSPACE, "Customer");
+        mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, formCustomer(), mf, customer, customer.getName(), false, new Dimension());
+        Table order = createTable(mf, KEYSPACE, "Oder");
+        mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, formOder(), mf, order, order.getName(), false, new Dimension());
+        
+        List<String> names = Arrays.asList("Customer", "Oder");
+        List<List<JsonObject>> probes = Arrays.asList(Arrays.asList(formCustomer()), Arrays.asList(formOder()));
+        String key = SchemaCache.key("default", KEYSPACE, "`test`:`type`", 100, false, false, 10000, 1024);
+        String fingerprint = SchemaCache.fingerprint(names, probes);
+        Map<String, Table> typed = new LinkedHashMap<>();
+        typed.put("Customer", customer);
+        typed.put("Oder", order);
+        
+        Path directory = Files.createTempDirectory("couchbase");
+        SchemaCache cache = new SchemaCache(directory.toString());
+        cache.store(key, fingerprint, typed, mf.getSchema().getTables().values());
+        
+        JsonObject cached = cache.load(key, fingerprint);
+        assertNotNull(cached);
+        MetadataFactory replayed = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        assertEquals(typed.keySet(), cache.replay(replayed, cached).keySet());
+        helpTest("customerOrderTypedName.expected", replayed);
+        
+        // the values changed, the shape not changed
+        assertEquals(fingerprint, SchemaCache.fingerprint(names, Arrays.asList(Arrays.asList(formCustomer().put("Name", "Jane Doe")), Arrays.asList(formOder()))));
+        // a new attribute
+        String changed = SchemaCache.fingerprint(names, Arrays.asList(Arrays.asList(formCustomer().put("Email", "john@doe.com")), Arrays.asList(formOder())));
+        assertNotEquals(fingerprint, changed);
+        assertNull(cache.load(key, changed));
+        assertNull(cache.load(SchemaCache.key("default", KEYSPACE, "`test`:`type`", 10, false, false, 10000, 1024), fingerprint));
+        assertNull(cache.load(SchemaCache.key("default", KEYSPACE, "`test`:`type`", 100, false, true, 10000, 1024), fingerprint));
+        assertEquals(key, SchemaCache.key("default", KEYSPACE, "`test`:`type`", 100, false, false, 5000, 2048));
+        assertNull(cache.replay(replayed, cached));
+    }
+    
+    @Test
+    public void testDocumentWalker() throws ResourceException {
+        helpTestDocumentWalker("customerOrder.expected", KEYSPACE, formCustomer(), formOder());
+        helpTestDocumentWalker("nestedJson.expected", KEYSPACE, nestedJson());
+        helpTestDocumentWalker("nestedJsonTypedName.expected", "Sample", nestedJson());
+        helpTestDocumentWalker("nestedArray.expected", KEYSPACE, nestedArray());
+        helpTestDocumentWalker("complexJson.expected", KEYSPACE, complexJson());
+        helpTestDocumentWalker("complexJsonNestedArray.expected", KEYSPACE, complexJsonNestedArray());
+        
+        DocumentWalker walker = new DocumentWalker(KEYSPACE);
+        JsonObject shape = walker.walk("{\"PK\":\"customer-1\",\"test\":{\"Name\":\"John\",\"Age\":31,\"Score\":9.5,\"Big\":12345678901,\"Vip\":true,\"Note\":null}}".getBytes());
+        assertEquals("", shape.get("Name"));
+        assertEquals(Integer.class, shape.get("Age").getClass());
+        assertEquals(Double.class, shape.get("Score").getClass());
+        assertEquals(Long.class, shape.get("Big").getClass());
+        assertEquals(Boolean.TRUE, shape.get("Vip"));
+        assertTrue(shape.containsKey("Note"));
+        assertNull(walker.walk("{\"PK\":\"customer-1\"}".getBytes()));
+        // the names of the documents be interned
+        String name = null;
+        for(String n : shape.getNames()) {
+            if(n.equals("Name")) {
+                name = n;
+            }
+        }
+        assertSame(name, walker.walk("{\"test\":{\"Name\":\"Jane\"}}".getBytes()).getNames().iterator().next());
+    }
+    
+    private void helpTestDocumentWalker(String expected, String tableName, JsonValue... documents) throws ResourceException {
+        CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();  
+        MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        Table table = createTable(mf, KEYSPACE, tableName);
+        DocumentWalker walker = new DocumentWalker(KEYSPACE);
+        for(JsonValue document : documents) {
+            byte[] row = JsonObject.create().put("PK", "document-1").put(KEYSPACE, document).toString().getBytes();
+            mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, walker.walk(row), mf, table, tableName, false, new Dimension());
+        }
+        helpTest(expected, mf);
+    }
+    
+    @Test
+    public void testImportParallelism() throws TranslatorException {
+        Map<String, Map<String, List<JsonObject>>> keyspaces = new LinkedHashMap<>();
+        keyspaces.put(KEYSPACE, new LinkedHashMap<String, List<JsonObject>>());
+        keyspaces.get(KEYSPACE).put("Customer", Arrays.asList(formCustomer(), formCustomer().put("Email", "john@doe.com")));
+        keyspaces.get(KEYSPACE).put("Oder", Arrays.asList(formOder()));
+        keyspaces.put("test2", new LinkedHashMap<String, List<JsonObject>>());
+        keyspaces.get("test2").put("Customer", Arrays.asList(formCustomer().put("Phones", JsonArray.from("555-0100"))));
+        keyspaces.put("test3", new LinkedHashMap<String, List<JsonObject>>());
+        keyspaces.get("test3").put("Oder", Arrays.asList(formOder().put("Total", 1.5)));
+        CouchbaseConnection conn = importConnection(keyspaces);
+        
+        String expected = null;
+        for(int parallelism : new int[] {1, 2, 4}) {
+            CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();
+            mp.setTypeNameList("`test`:`type`,`test2`:`type`,`test3`:`type`");
+            mp.setImportParallelism(parallelism);
+            MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+            mp.process(mf, conn);
+            assertNotNull(mf.getSchema().getTable("test2_Customer"));
+            assertNotNull(mf.getSchema().getTable("test3_Oder"));
+            String ddl = DDLStringVisitor.getDDLString(mf.getSchema(), null, null);
+            if(expected == null) {
+                expected = ddl;
+            }
+            assertEquals("ImportParallelism " + parallelism, expected, ddl);
+        }
+    }
+
+    @Test
+    public void testSchemaCacheNaming() throws Exception {
+        Map<String, Map<String, List<JsonObject>>> keyspaces = new LinkedHashMap<>();
+        keyspaces.put(KEYSPACE, new LinkedHashMap<String, List<JsonObject>>());
+        keyspaces.get(KEYSPACE).put("Customer", Arrays.asList(formCustomer()));
+        keyspaces.put("test2", new LinkedHashMap<String, List<JsonObject>>());
+        keyspaces.get("test2").put("Customer", Arrays.asList(formCustomer()));
+
+        String directory = Files.createTempDirectory("couchbase").toString();
+        CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();
+        mp.setTypeNameList("`test`:`type`,`test2`:`type`");
+        mp.setSchemaCacheDirectory(directory);
+        MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        mp.process(mf, importConnection(keyspaces));
+        assertNotNull(mf.getSchema().getTable("test2_Customer"));
+
+        // test2 cached as test2_Customer, without the keyspace test the scan names it Customer
+        keyspaces.remove(KEYSPACE);
+        mp = new CouchbaseMetadataProcessor();
+        mp.setTypeNameList("`test`:`type`,`test2`:`type`");
+        mp.setSchemaCacheDirectory(directory);
+        mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        mp.process(mf, importConnection(keyspaces));
+        assertNotNull(mf.getSchema().getTable("Customer"));
+        assertNull(mf.getSchema().getTable("test2_Customer"));
+    }
+    
+    /**
+     * @return a connection answers the import queries with the documents of each type of each keyspace
+     */
+    static CouchbaseConnection importConnection(final Map<String, Map<String, List<JsonObject>>> keyspaces) {
+        final Pattern from = Pattern.compile("FROM `default`:`([^`]+)`");
+        final Pattern typed = Pattern.compile("='([^']+)'");
+        return (CouchbaseConnection) Proxy.newProxyInstance(CouchbaseConnection.class.getClassLoader(), new Class<?>[] {CouchbaseConnection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if(method.getName().equals("getNamespace")) {
+                    return "default";
+                } else if(!method.getName().equals("executeQuery") || !(args[0] instanceof String)) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                String query = (String) args[0];
+                List<JsonObject> rows = new ArrayList<>();
+                Matcher keyspace = from.matcher(query);
+                if(query.contains("system:namespaces")) {
+                    rows.add(JsonObject.create().put("name", "default"));
+                } else if(query.contains("system:keyspaces")) {
+                    for(String name : keyspaces.keySet()) {
+                        rows.add(JsonObject.create().put("name", name));
+                    }
+                } else if(query.startsWith("SELECT DISTINCT") && keyspace.find()) {
+                    for(String type : keyspaces.get(keyspace.group(1)).keySet()) {
+                        rows.add(JsonObject.create().put("type", type));
+                    }
+                } else if(query.startsWith("SELECT meta(") && keyspace.find()) {
+                    Matcher type = typed.matcher(query);
+                    type.find();
+                    List<JsonObject> documents = keyspaces.get(keyspace.group(1)).get(type.group(1));
+                    for(int i = 0 ; i < documents.size() ; i ++) {
+                        rows.add(JsonObject.create().put("PK", type.group(1) + "-" + i).put(keyspace.group(1), documents.get(i)));
+                    }
+                }
+                return queryResult(rows);
+            }});
+    }
+    
+    static N1qlQueryResult queryResult(List<JsonObject> values) {
+        final List<N1qlQueryRow> rows = new ArrayList<>(values.size());
+        for(JsonObject value : values) {
+            rows.add(new DefaultN1qlQueryRow(new DefaultAsyncN1qlQueryRow(value.toString().getBytes(StandardCharsets.UTF_8))));
+        }
+        return (N1qlQueryResult) Proxy.newProxyInstance(N1qlQueryResult.class.getClassLoader(), new Class<?>[] {N1qlQueryResult.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch(method.getName()) {
+                case "allRows":
+                    return rows;
+                case "iterator":
+                    return rows.iterator();
+                case "finalSuccess":
+                case "parseSuccess":
+                    return true;
+                case "errors":
+                    return Collections.emptyList();
+                default:
+                    return null;
+                }
+            }});
+    }
+    
+    @Test
+    public void testSchemaDrift() throws ResourceException {
+        CouchbaseMetadataProcessor mp = new CouchbaseMetadataProcessor();  
+        mp.setTypeNameList("`test`:`type`");
+        MetadataFactory mf = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        Table customer = createTable(mf, KEYSPACE, "Customer");
+        mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, formCustomer(), mf, customer, customer.getName(), false, new Dimension());
+        Map<String, Table> typed = new LinkedHashMap<>();
+        typed.put("Customer", customer);
+        JsonArray baseline = SchemaCache.snapshot(typed, mf.getSchema().getTables().values());
+        
+        MetadataFactory scratch = new MetadataFactory("vdb", 1, "couchbase", SystemMetadata.getInstance().getRuntimeTypeMap(), new Properties(), null);
+        Map<String, Table> replayed = SchemaCache.replay(scratch, baseline);
+        assertTrue(SchemaCache.diff(baseline, SchemaCache.snapshot(replayed, scratch.getSchema().getTables().values())).isEmpty());
+        
+        Table changed = replayed.get("Customer");
+        JsonObject document = formCustomer().put("ID", 12345).put("Email", "john@doe.com").put("Phones", JsonArray.from("555-0100"));
+        mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, document, scratch, changed, changed.getName(), false, new Dimension());
+        List<String> delta = SchemaCache.diff(baseline, SchemaCache.snapshot(replayed, scratch.getSchema().getTables().values()));
+        assertEquals(Arrays.asList("ALTER COLUMN Customer.ID string TO object", "ADD COLUMN Customer.Email string", "ADD TABLE Customer_Phones"), delta);
+    }
+    
+    @Test
+    public void testSchemaDriftConnectionFactory() throws Exception {
+        Map<String, Map<String, List<JsonObject>>> keyspaces = new LinkedHashMap<>();
+        keyspaces.put(KEYSPACE, new LinkedHashMap<String, List<JsonObject>>());
+        keyspaces.get(KEYSPACE).put("Customer", Arrays.asList(formCustomer()));
+        final CouchbaseConnection conn = importConnection(keyspaces);
+        ConnectionFactory factory = (ConnectionFactory) Proxy.newProxyInstance(ConnectionFactory.class.getClassLoader(), new Class<?>[] {ConnectionFactory.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return method.getName().equals("getConnection") ? conn : null;
+            }});
+        ExecutionContext executionContext = (ExecutionContext) Proxy.newProxyInstance(ExecutionContext.class.getClassLoader(), new Class<?>[] {ExecutionContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return null;
+            }});
+        
+        Properties properties = new Properties();
+        properties.setProperty("importer.TypeNameList", "`test`:`type`");
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setSchemaDriftInterval(3600);
+        ef.start();
+        try {
+            // model a be imported from its factory, model b be imported without a factory
+            ef.getConnection(factory, null);
+            ef.getMetadata(new MetadataFactory("vdb", 1, "a", SystemMetadata.getInstance().getRuntimeTypeMap(), properties, null), conn);
+            ef.getMetadata(new MetadataFactory("vdb", 1, "b", SystemMetadata.getInstance().getRuntimeTypeMap(), properties, null), conn);
+            
+            // only model a be queried, its factory must not be bound to model b
+            ef.getConnection(factory, executionContext);
+            SchemaDriftDetector detector = ef.getSchemaDriftDetector();
+            assertSame(factory, detector.getRegistration("vdb", 1, "a").connectionFactory);
+            assertNull(detector.getRegistration("vdb", 1, "b").connectionFactory);
+        } finally {
+            ef.getSchemaDriftDetector().shutdown();
+        }
+    }
+    
+    @Test
+    public void testAdaptiveSamplingRandomKey() {
+        Random random = new Random(0);
+        for(int i = 0 ; i < 100 ; i ++) {
+            String key = AdaptiveSampler.randomKey("customer-1", "order-999", random);
+            assertTrue(key, key.compareTo("customer-1") > 0 && key.compareTo("order-999") <= 0);
+            key = AdaptiveSampler.randomKey("customer-1", "customer-999", random);
+            assertTrue(key, key.startsWith("customer-") && key.compareTo("customer-1") > 0 && key.compareTo("customer-999") <= 0);
+        }
+        assertEquals("customer-1", AdaptiveSampler.randomKey("customer-1", "customer-1", random));
+        
+        AdaptiveSampler sampler = new AdaptiveSampler(null, "default", KEYSPACE, null, 100, 1000, 1024, random);
+        assertFalse(sampler.converged(5));
+        assertFalse(sampler.converged(0));
+        assertFalse(sampler.converged(1));
+        assertFalse(sampler.converged(0));
+        assertTrue(sampler.converged(0));
+    }
+    
+    static JsonObject formCustomerFlavor() {
+        return JsonObject.create()
+                .put("#docs", 1)
+                .put("Flavor", "type = \"Customer\"")
+                .put("type", "object")
+                .put("properties", JsonObject.create()
+                        .put("Name", formStringSchema("John Doe"))
+                        .put("ID", formStringSchema("Customer_101"))
+                        .put("type", formStringSchema("Customer"))
+                        .put("SavedAddresses", JsonObject.create().put("type", "array").put("items", formStringSchema("123 Main St."))));
+    }
+    
+    static JsonObject formOderFlavor() {
+        return JsonObject.create()
+                .put("#docs", 1)
+                .put("Flavor", "type = \"Oder\"")
+                .put("type", "object")
+                .put("properties", JsonObject.create()
+                        .put("Name", formStringSchema("Air Ticket"))
+                        .put("type", formStringSchema("Oder"))
+                        .put("CustomerID", formStringSchema("Customer_101"))
+                        .put("CreditCard", JsonObject.create().put("type", "object").put("properties", JsonObject.create()
+                                .put("Type", formStringSchema("Visa"))
+                                .put("CardNumber", formStringSchema("4111 1111 1111 111"))
+                                .put("Expiry", formStringSchema("12/12"))
+                                .put("CVN", JsonObject.create().put("type", "number").put("samples", JsonArray.from(123)))))
+                        .put("Items", JsonObject.create().put("type", "array").put("items", JsonObject.create().put("type", "object").put("properties", JsonObject.create()
+                                .put("ItemID", JsonObject.create().put("type", "number").put("samples", JsonArray.from(89123, 92312)))
+                                .put("Quantity", JsonObject.create().put("type", "number").put("samples", JsonArray.from(1, 5)))))));
+    }
+    
+    static JsonObject formStringSchema(String sample) {
+        return JsonObject.create().put("type", "string").put("samples", JsonArray.from(sample));
+    }
+    
+    static List<JsonObject> formIndexes() {
+        return Arrays.asList(
+                JsonObject.create().put("name", "#primary").put("index_key", JsonArray.empty()).put("is_primary", true),
+                JsonObject.create().put("name", "idx_name").put("index_key", JsonArray.from("`Name`")).put("condition", "(`type` = \"Customer\")"),
+                JsonObject.create().put("name", "idx_name_type").put("index_key", JsonArray.from("`Name`", "`type`")),
+                JsonObject.create().put("name", "idx_card").put("index_key", JsonArray.from("(`CreditCard`.`Type`)", "lower(`Name`)")));
+    }
+    
     static Table createTable(MetadataFactory mf, String keyspace, String tableName) {
         if (mf.getSchema().getTable(tableName) != null && !tableName.equals(keyspace)) { 
             tableName = keyspace + UNDERSCORE + tableName;
@@ -24,13 +24,57 @@ package org.teiid.translator.couchbase;
 import static org.teiid.translator.couchbase.TestCouchbaseMetadataProcessor.*;
 import static org.junit.Assert.*;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.resource.ResourceException;
+import javax.resource.cci.ConnectionMetaData;
+import javax.resource.cci.Interaction;
+import javax.resource.cci.LocalTransaction;
+import javax.resource.cci.ResultSetInfo;
 
 import org.junit.Test;
+import org.teiid.couchbase.CouchbaseConnection;
+import org.teiid.core.types.BlobType;
+import org.teiid.core.types.ClobType;
+import org.teiid.core.util.ObjectConverterUtil;
+import org.teiid.language.Call;
+import org.teiid.language.Condition;
+import org.teiid.language.NamedTable;
+import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
+import org.teiid.metadata.Table;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ProcedureExecution;
+import org.teiid.translator.TranslatorException;
 
+import com.couchbase.client.java.document.RawJsonDocument;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.AsyncN1qlQueryRow;
+import com.couchbase.client.java.query.DefaultAsyncN1qlQueryRow;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.query.N1qlQueryResult;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
 
 @SuppressWarnings("nls")
 public class TestCouchbaseQueryExecution {
@@ -50,6 +94,610 @@ public class TestCouchbaseQueryExecution {
             Object item = jsonArray.get(i);
             assertEquals(item.getClass(), JsonObject.class);
         }
-    }    
+    }
+    
+    @Test
+    public void testRowStreamPoll() throws Exception {
+        
+        final AtomicInteger signals = new AtomicInteger();
+        N1QLRowStream stream = new N1QLRowStream(2).listen(new Runnable() {
+            @Override
+            public void run() {
+                signals.incrementAndGet();
+            }});
+        
+        try {
+            stream.poll();
+            fail();
+        } catch (DataNotAvailableException e) {
+            assertSame(DataNotAvailableException.NO_POLLING, e);
+        }
+        
+        stream.onNext(new DefaultAsyncN1qlQueryRow("{\"name\":\"a\"}".getBytes()));
+        stream.onNext(new DefaultAsyncN1qlQueryRow("{\"name\":\"b\"}".getBytes()));
+        assertEquals(1, signals.get());
+        assertEquals("a", stream.poll().value().getString("name"));
+        assertEquals("b", stream.poll().value().getString("name"));
+        
+        stream.onCompleted();
+        assertNull(stream.poll());
+    }
+    
+    @Test
+    public void testRowStreamRequest() throws Exception {
+
+        List<AsyncN1qlQueryRow> rows = new ArrayList<>();
+        for(int i = 0 ; i < 10 ; i ++) {
+            rows.add(new DefaultAsyncN1qlQueryRow(("{\"id\":" + i + "}").getBytes()));
+        }
+        final List<Long> requests = new ArrayList<>();
+        N1QLRowStream stream = new N1QLRowStream(4).subscribeRows(Observable.from(rows).doOnRequest(new Action1<Long>() {
+            @Override
+            public void call(Long n) {
+                requests.add(n);
+            }}));
+        assertEquals(Arrays.asList(4L), requests);
+
+        assertEquals(0, stream.take().value().getInt("id").intValue());
+        assertEquals(Arrays.asList(4L), requests);
+        assertEquals(1, stream.take().value().getInt("id").intValue());
+        assertEquals(Arrays.asList(4L, 2L), requests); // half of the buffer be drained
+
+        for(int i = 2 ; i < 10 ; i ++) {
+            assertEquals(i, stream.take().value().getInt("id").intValue());
+        }
+        assertNull(stream.take());
+    }
+
+    @Test
+    public void testPreparedStatementCache() {
+        
+        PreparedStatementCache cache = new PreparedStatementCache(2);
+        assertNull(cache.get("s1"));
+        cache.put("s1", "p1");
+        cache.put("s2", "p2");
+        assertEquals("p1", cache.get("s1"));
+        cache.put("s3", "p3"); // s2 is the least recently used
+        assertNull(cache.get("s2"));
+        assertEquals("p3", cache.get("s3"));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        
+        assertEquals(Arrays.asList("p2"), cache.drainRemoved()); // evicted
+
+        cache.invalidate("s1");
+        assertNull(cache.get("s1"));
+        cache.put("s3", "p4");
+        assertEquals(Arrays.asList("p1", "p3"), cache.drainRemoved()); // invalidated and replaced
+        assertEquals(Collections.emptyList(), cache.drainRemoved());
+
+        assertTrue(PreparedStatementCache.isPlanInvalidated(Arrays.asList(JsonObject.create().put("code", 4040).put("msg", "No such prepared statement"))));
+        assertFalse(PreparedStatementCache.isPlanInvalidated(Arrays.asList(JsonObject.create().put("code", 3000))));
+    }
+    
+    @Test
+    public void testKeyValueLookup() {
+        
+        QueryExpression query = (QueryExpression) TestN1QLVisitor.translationUtility.parseCommand("SELECT documentID, Name, CreditCard_CardNumber FROM Oder WHERE documentID = 'order'");
+        KeyValueLookup lookup = KeyValueLookup.plan(query, KEYSPACE);
+        assertEquals(Arrays.asList("order"), new ArrayList<>(lookup.getKeys()));
+        assertEquals(Arrays.asList("order", "Air Ticket", "4111 1111 1111 111"), lookup.project("order", formOder().toString()));
+        assertNull(lookup.project("customer", formCustomer().toString())); // not the Oder type
+        
+        query = (QueryExpression) TestN1QLVisitor.translationUtility.parseCommand("SELECT Name FROM Customer WHERE documentID IN ('c1', 'c2', 'c1')");
+        lookup = KeyValueLookup.plan(query, KEYSPACE);
+        assertEquals(Arrays.asList("c1", "c2"), new ArrayList<>(lookup.getKeys()));
+        
+        query = (QueryExpression) TestN1QLVisitor.translationUtility.parseCommand("SELECT Name FROM Customer WHERE Name = 'John Doe'");
+        assertNull(KeyValueLookup.plan(query, KEYSPACE));
+        
+        query = (QueryExpression) TestN1QLVisitor.translationUtility.parseCommand("SELECT Name FROM Customer WHERE documentID = 'customer'");
+        assertNull(KeyValueLookup.plan(query, "other"));
+    }
+    
+    @Test
+    public void testKeysetPagination() {
+        
+        KeysetCursorCache cache = new KeysetCursorCache(16);
+        Select query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT documentID, Name FROM Customer ORDER BY documentID LIMIT 10, 2");
+        KeysetPagination keyset = KeysetPagination.plan(query, cache, "c1");
+        assertFalse(keyset.rewrite());
+        keyset.observe(new Object[] {"customer-11", "A"});
+        keyset.observe(new Object[] {"customer-12", "B"});
+        keyset.store();
+        assertEquals(1, cache.size());
+        
+        query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT documentID, Name FROM Customer ORDER BY documentID LIMIT 12, 2");
+        assertFalse(KeysetPagination.plan(query, cache, "c2").rewrite());
+        keyset = KeysetPagination.plan(query, cache, "c1");
+        assertTrue(keyset.rewrite());
+        N1QLVisitor visitor = new CouchbaseExecutionFactory().getN1QLVisitor();
+        visitor.append(query);
+        assertEquals("SELECT `$cb_c1_documentID`, `$cb_c2_Name` FROM `test` `$cb_t1` LET `$cb_c1_documentID` = META(`$cb_t1`).id, `$cb_c2_Name` = `$cb_t1`.`Name` "
+                + "WHERE META(`$cb_t1`).id > 'customer-12' AND `$cb_t1`.`type` = 'Customer' ORDER BY `$cb_c1_documentID` LIMIT 2", visitor.toString());
+        
+        query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT Name FROM Customer ORDER BY Name LIMIT 2");
+        assertNull(KeysetPagination.plan(query, cache, "c1"));
+        
+        // the NULL and MISSING names sort last, a seek on a descending name would drop them
+        query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT documentID, Name FROM Customer ORDER BY Name DESC, documentID LIMIT 10, 2");
+        assertNull(KeysetPagination.plan(query, cache, "c1"));
+        
+        query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT documentID, attr_long FROM T2 ORDER BY attr_long, documentID DESC LIMIT 10, 2");
+        keyset = KeysetPagination.plan(query, cache, "c1");
+        keyset.observe(new Object[] {"t2-11", JsonObject.create()});
+        keyset.store();
+        assertEquals(1, cache.size()); // an object not be comparable
+        keyset.observe(new Object[] {"t2-12", 12});
+        keyset.store();
+        assertEquals(2, cache.size());
+        
+        query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT documentID, attr_long FROM T2 ORDER BY attr_long, documentID DESC LIMIT 12, 2");
+        assertTrue(KeysetPagination.plan(query, cache, "c1").rewrite());
+        visitor = new CouchbaseExecutionFactory().getN1QLVisitor();
+        visitor.append(query);
+        assertTrue(visitor.toString(), visitor.toString().contains(" > 12 OR ("));
+        assertTrue(visitor.toString(), visitor.toString().contains(" = 12 AND META(`$cb_t1`).id < 't2-12')"));
+    }
+    
+    @Test
+    public void testKeyRangePartitioner() {
+        
+        Select query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT Name FROM Customer");
+        assertNull(KeyRangePartitioner.plan(query));
+        
+        Table table = ((NamedTable) query.getFrom().get(0)).getMetadataObject();
+        table.setProperty(CouchbaseMetadataProcessor.PARTITION_COUNT, "3");
+        try {
+            KeyRangePartitioner partitioner = KeyRangePartitioner.plan(query);
+            assertEquals(3, partitioner.getConcurrency());
+            List<Condition> ranges = partitioner.getRanges(new Object[] {"customer-3", "customer-6"});
+            assertEquals(3, ranges.size());
+            
+            query.setWhere(ranges.get(1));
+            N1QLVisitor visitor = new CouchbaseExecutionFactory().getN1QLVisitor();
+            visitor.append(query);
+            assertEquals("SELECT `$cb_c1_Name` FROM `test` `$cb_t1` LET `$cb_c1_Name` = `$cb_t1`.`Name`, `$cb_c2_documentID` = META(`$cb_t1`).id "
+                    + "WHERE META(`$cb_t1`).id >= 'customer-3' AND META(`$cb_t1`).id < 'customer-6' AND `$cb_t1`.`type` = 'Customer'", visitor.toString());
+        } finally {
+            table.setProperty(CouchbaseMetadataProcessor.PARTITION_COUNT, null);
+        }
+    }
+    
+    @Test
+    public void testPartitionedAggregation() throws TranslatorException {
+        
+        Select query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT attr_string, AVG(attr_integer), COUNT(*), MAX(attr_integer) FROM T2 GROUP BY attr_string");
+        assertTrue(PartitionedAggregation.isAggregate(query));
+        PartitionedAggregation aggregation = PartitionedAggregation.plan(query);
+        N1QLVisitor visitor = new CouchbaseExecutionFactory().getN1QLVisitor();
+        visitor.append(aggregation.getPartialSelect());
+        assertEquals("SELECT `$cb_c1_attr_string`, SUM(`$cb_c2_attr_integer`), COUNT(NULLIF(IS_NUMBER(`$cb_c3_attr_integer`), FALSE)), COUNT(*), MAX(`$cb_c4_attr_integer`) FROM `T2` `$cb_t1` "
+                + "LET `$cb_c1_attr_string` = `$cb_t1`.`attr_string`, `$cb_c2_attr_integer` = `$cb_t1`.`attr_integer`, `$cb_c3_attr_integer` = `$cb_t1`.`attr_integer`, "
+                + "`$cb_c4_attr_integer` = `$cb_t1`.`attr_integer` GROUP BY `$cb_c1_attr_string`", visitor.toString());
+        
+        ValueConverter[] converters = ValueConverter.forTypes(query.getColumnTypes());
+        // one of the three documents in the partition has a non-numeric attr_integer, the SUM skips it and so the numeric COUNT
+        aggregation.accumulate(new Object[] {"a", 10, 2, 3, 7}, converters);
+        aggregation.accumulate(new Object[] {"b", null, 0, 1, null}, converters);
+        aggregation.accumulate(new Object[] {"a", 20, 3, 3, 9}, converters);
+        List<List<?>> results = aggregation.getResults(converters);
+        assertEquals(2, results.size());
+        assertEquals("a", results.get(0).get(0));
+        assertEquals(6.0, ((Number)results.get(0).get(1)).doubleValue(), 0);
+        assertEquals(6, results.get(0).get(2));
+        assertEquals(9, results.get(0).get(3));
+        assertEquals(Arrays.asList("b", null, 1, null), results.get(1));
+        
+        query = (Select) TestN1QLVisitor.translationUtility.parseCommand("SELECT COUNT(DISTINCT attr_string) FROM T2");
+        assertNull(PartitionedAggregation.plan(query));
+    }
+    
+    @Test
+    public void testRowDecoder() {
+        
+        String row = "{\"$cb_c1_Name\":\"John \\\"D\\\" \\u00e9\", \"skip\": {\"a\": [1, {\"b\": \"}]\"}]}, \"$1\": 12, \"big\": 12345678901, \"d\": 1.5e2, "
+                + "\"obj\": {\"x\": 1}, \"arr\": [1, 2], \"b\": true, \"n\": null}";
+        String[] fields = new String[] {"$1", "$cb_c1_Name", "obj", "arr", "big", "d", "b", "n", "$1"};
+        Object[] values = new N1QLRowDecoder(fields).decode(row.getBytes());
+        JsonObject json = JsonObject.fromJson(row);
+        for(int i = 0 ; i < fields.length ; i ++) {
+            assertEquals(fields[i], json.get(fields[i]), values[i]);
+        }
+        assertEquals("John \"D\" \u00e9", values[1]);
+        assertEquals(Long.valueOf(12345678901L), values[4]);
+    }
+    
+    @Test
+    public void testValueConverter() throws Exception {
+        
+        ValueConverter[] converters = ValueConverter.forTypes(new Class<?>[] {Long.class, BigDecimal.class, Short.class, String.class, Timestamp.class, Timestamp.class, ClobType.class, Object.class});
+        assertEquals(Long.valueOf(1), converters[0].convert(1));
+        assertEquals(BigDecimal.valueOf(1.5), converters[1].convert(1.5));
+        assertEquals(Short.valueOf((short)2), converters[2].convert(2));
+        assertEquals("{\"a\":1}", converters[3].convert(JsonObject.create().put("a", 1)));
+        assertEquals(Timestamp.valueOf("2017-01-01 10:00:00"), converters[4].convert("2017-01-01T10:00:00"));
+        assertEquals(Timestamp.valueOf("2017-01-01 00:00:00"), converters[5].convert("2017-01-01"));
+        assertEquals("{\"a\":1}", ((ClobType)converters[6].convert(JsonObject.create().put("a", 1))).getSubString(1, 7));
+        JsonArray array = JsonArray.from(1, 2);
+        assertSame(array, converters[7].convert(array));
+        assertNull(converters[0].convert(null));
+        assertEquals("not a number", converters[0].convert("not a number"));
+        
+        // the integral values be converted exactly, never be truncated or wrapped
+        assertEquals(Long.valueOf(3), converters[0].convert(3.0));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), converters[0].convert(BigInteger.valueOf(Long.MAX_VALUE)));
+        assertEquals(Short.valueOf((short)-32768), converters[2].convert(new BigDecimal("-32768.00")));
+        for(Object value : new Object[] {1.5, new BigDecimal("2.01"), Double.NaN, 1e19, BigInteger.ONE.shiftLeft(64)}) {
+            try {
+                converters[0].convert(value);
+                fail(String.valueOf(value));
+            } catch (TranslatorException e) {
+                // expected
+            }
+        }
+        for(Object value : new Object[] {32768, -32769L, 40000.0}) {
+            try {
+                converters[2].convert(value);
+                fail(String.valueOf(value));
+            } catch (TranslatorException e) {
+                // expected
+            }
+        }
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), ValueConverter.forType(Integer.class).convert((long)Integer.MIN_VALUE));
+        try {
+            ValueConverter.forType(Byte.class).convert(128);
+            fail();
+        } catch (TranslatorException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testUseKeysBatches() throws Exception {
+        
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setStreamingResults(true);
+        ef.setUseKeysBatchSize(2);
+        ef.start();
+        
+        RecordingConnection connection = new RecordingConnection();
+        String sql = "SELECT Name FROM Customer WHERE documentID IN ('c1', 'c2', 'c3', 'c4', 'c5')";
+        helpExecute(ef, sql, connection);
+        assertEquals(3, connection.queries.size());
+        assertEquals(JsonArray.from("c5"), connection.queries.get(2).n1ql().getArray("args").getArray(0));
+        
+        connection = new RecordingConnection();
+        sql = "SELECT COUNT(*) FROM Customer WHERE documentID IN ('c1', 'c2', 'c3', 'c4', 'c5')";
+        helpExecute(ef, sql, connection);
+        assertEquals(1, connection.queries.size());
+        assertEquals(JsonArray.from("c1", "c2", "c3", "c4", "c5"), connection.queries.get(0).n1ql().getArray("args").getArray(0));
+        
+        connection = new RecordingConnection();
+        sql = "SELECT Name FROM Customer WHERE documentID IN ('c1', 'c2', 'c3', 'c4', 'c5') ORDER BY Name LIMIT 2";
+        helpExecute(ef, sql, connection);
+        assertEquals(1, connection.queries.size());
+        assertEquals(JsonArray.from("c1", "c2", "c3", "c4", "c5"), connection.queries.get(0).n1ql().getArray("args").getArray(0));
+    }
+    
+    @Test(timeout=10000)
+    public void testCancelBlockedNext() throws Exception {
+        
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setStreamingResults(true);
+        ef.start();
+        
+        RecordingConnection connection = new RecordingConnection();
+        connection.result = Observable.never(); // no row ever arrives
+        final CouchbaseQueryExecution execution = helpExecute(ef, "SELECT Name FROM Customer", connection);
+        
+        final AtomicReference<Object> next = new AtomicReference<Object>(this);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    next.set(execution.next());
+                } catch (Exception e) {
+                    next.set(e);
+                }
+            }};
+        reader.start();
+        while(reader.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        
+        // the N1QL be tagged with the client context id, the cancel aborts the request by it
+        String clientContextId = execution.getClientContextId();
+        assertEquals(clientContextId, connection.queries.get(0).n1ql().getString("client_context_id"));
+        
+        execution.cancel();
+        reader.join();
+        assertNull(next.get());
+        assertNull(execution.next());
+        assertEquals(2, connection.queries.size());
+        assertEquals("DELETE FROM system:active_requests WHERE clientContextID = $1", connection.queries.get(1).n1ql().getString("statement"));
+        assertEquals(JsonArray.from(clientContextId), connection.queries.get(1).n1ql().getArray("args"));
+        
+        // no request be in flight after all rows arrived
+        connection = new RecordingConnection();
+        connection.result = Observable.just(asyncResult());
+        CouchbaseQueryExecution completed = helpExecute(ef, "SELECT Name FROM Customer", connection);
+        assertNull(completed.next());
+        completed.cancel();
+        assertEquals(1, connection.queries.size());
+    }
+    
+    @Test(timeout=10000)
+    public void testKeyValueConcurrency() throws Exception {
+
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setKeyValueConcurrency(2);
+        ef.start();
+
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        RecordingConnection connection = new RecordingConnection() {
+            @Override
+            public String getKeyspaceName() {
+                return KEYSPACE;
+            }
+            @Override
+            public synchronized Observable<RawJsonDocument> getAsyncDocument(String id) {
+                maxActive.set(Math.max(maxActive.get(), active.incrementAndGet()));
+                return Observable.just(RawJsonDocument.create(id, formCustomer().put("Name", id).toString())).delay(20, TimeUnit.MILLISECONDS).doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        active.decrementAndGet();
+                    }});
+            }
+        };
+        CouchbaseQueryExecution execution = helpExecute(ef, "SELECT Name FROM Customer WHERE documentID IN ('c1', 'c2', 'c3', 'c4', 'c5')", connection);
+
+        Set<Object> names = new HashSet<>();
+        for(List<?> row = execution.next() ; row != null ; row = execution.next()) {
+            names.add(row.get(0));
+        }
+        assertEquals(new HashSet<Object>(Arrays.asList("c1", "c2", "c3", "c4", "c5")), names);
+        assertTrue(maxActive.get() <= 2);
+        assertTrue(connection.queries.isEmpty());
+    }
+
+    @Test(timeout=10000)
+    public void testKeyValueAsynchronous() throws Exception {
+
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setAsynchronousExecution(true);
+        ef.start();
+
+        // the execute not wait the documents
+        RecordingConnection connection = new RecordingConnection() {
+            @Override
+            public String getKeyspaceName() {
+                return KEYSPACE;
+            }
+            @Override
+            public Observable<RawJsonDocument> getAsyncDocument(String id) {
+                return Observable.never();
+            }
+        };
+        CouchbaseQueryExecution execution = helpExecute(ef, "SELECT Name FROM Customer WHERE documentID IN ('c1', 'c2')", connection);
+        try {
+            execution.next();
+            fail();
+        } catch (DataNotAvailableException e) {
+            assertSame(DataNotAvailableException.NO_POLLING, e);
+        }
+        execution.cancel();
+        assertTrue(connection.queries.isEmpty()); // no N1QL request to abort
+
+        // the get failed before any document, the next falls back to N1QL
+        connection = new RecordingConnection() {
+            @Override
+            public String getKeyspaceName() {
+                return KEYSPACE;
+            }
+            @Override
+            public Observable<RawJsonDocument> getAsyncDocument(String id) {
+                return Observable.error(new IllegalStateException("key-value service not available"));
+            }
+        };
+        execution = helpExecute(ef, "SELECT Name FROM Customer WHERE documentID IN ('c1', 'c2')", connection);
+        assertTrue(connection.queries.isEmpty());
+        assertNull(execution.next());
+        assertEquals(1, connection.queries.size());
+    }
+
+    @Test(timeout=10000)
+    public void testPreparedStatementInvalidated() throws Exception {
+
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setUsePreparedStatements(true);
+        ef.setStreamingResults(true);
+        ef.start();
+
+        String sql = "SELECT Name FROM Customer WHERE Name = 'John Doe'";
+        N1QLVisitor visitor = ef.getN1QLVisitor();
+        visitor.append(TestN1QLVisitor.translationUtility.parseCommand(sql));
+        String statement = visitor.toString();
+        ef.getPreparedStatementCache().put(statement, "teiid_old");
+
+        RecordingConnection connection = new RecordingConnection() {
+            @Override
+            public Observable<AsyncN1qlQueryResult> executeAsyncQuery(N1qlQuery query) {
+                this.queries.add(query);
+                if(query.n1ql().getString("statement").equals("EXECUTE `teiid_old`")) {
+                    return Observable.just(asyncResult(JsonObject.create().put("code", 4040).put("msg", "No such prepared statement")));
+                }
+                return Observable.just(asyncResult());
+            }
+        };
+        CouchbaseQueryExecution execution = helpExecute(ef, sql, connection);
+        assertNull(execution.next());
+
+        // prepared and cached again, the invalidated plan be deleted from the server
+        String name = ef.getPreparedStatementCache().get(statement);
+        assertNotNull(name);
+        assertNotEquals("teiid_old", name);
+        List<String> statements = new ArrayList<>();
+        for(N1qlQuery query : connection.queries) {
+            statements.add(query.n1ql().getString("statement"));
+        }
+        assertEquals(Arrays.asList("EXECUTE `teiid_old`", "PREPARE `" + name + "` FROM " + statement, "DELETE FROM system:prepareds WHERE name = $1", "EXECUTE `" + name + "`"), statements);
+        assertEquals(JsonArray.from("teiid_old"), connection.queries.get(2).n1ql().getArray("args"));
+    }
+
+    /**
+     * @return a result without rows, with the errors the query service reported
+     */
+    static AsyncN1qlQueryResult asyncResult(final JsonObject... errors) {
+        return (AsyncN1qlQueryResult) Proxy.newProxyInstance(AsyncN1qlQueryResult.class.getClassLoader(), new Class<?>[] {AsyncN1qlQueryResult.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if(method.getName().equals("rows")) {
+                    return Observable.empty();
+                } else if(method.getName().equals("errors")) {
+                    return Observable.from(errors);
+                } else if(method.getName().equals("finalSuccess")) {
+                    return Observable.just(errors.length == 0);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }});
+    }
+
+    @Test
+    public void testKeyValueProcedure() throws Exception {
+
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setStreamingResults(true);
+        ef.start();
+
+        final JsonObject customer = formCustomer();
+        RecordingConnection connection = new RecordingConnection() {
+            @Override
+            public String getKeyspaceName() {
+                return "test";
+            }
+            @Override
+            public RawJsonDocument getDocument(String id) {
+                if(id.equals("broken")) {
+                    throw new IllegalStateException("key-value service not available");
+                }
+                return id.equals("customer") ? RawJsonDocument.create(id, customer.toString()) : null;
+            }
+        };
+
+        ProcedureExecution execution = helpCall(ef, "call getTextDocument('customer', 'test')", connection);
+        List<?> row = execution.next();
+        assertEquals("customer", row.get(0));
+        ClobType clob = (ClobType) row.get(1);
+        assertEquals(customer, JsonObject.fromJson(clob.getSubString(1, (int) clob.length())));
+        assertNull(execution.next());
+
+        execution = helpCall(ef, "call getDocument('customer', 'test')", connection);
+        row = execution.next();
+        byte[] bytes = ObjectConverterUtil.convertToByteArray(((BlobType) row.get(0)).getBinaryStream());
+        assertEquals(JsonObject.create().put("result", customer), JsonObject.fromJson(new String(bytes, StandardCharsets.UTF_8)));
+        assertNull(execution.next());
+
+        // a missing document be no row, rather than a N1QL
+        execution = helpCall(ef, "call getDocument('missing', 'test')", connection);
+        assertNull(execution.next());
+        execution = helpCall(ef, "call getTextDocument('missing', 'test')", connection);
+        assertNull(execution.next());
+        assertTrue(connection.queries.isEmpty());
+
+        // another keyspace, or the key-value service failed, the N1QL be used
+        helpCall(ef, "call getDocument('customer', 'other')", connection);
+        assertEquals(1, connection.queries.size());
+        execution = helpCall(ef, "call getTextDocument('broken', 'test')", connection);
+        assertEquals(2, connection.queries.size());
+        assertNull(execution.next());
+    }
+
+    private static ProcedureExecution helpCall(CouchbaseExecutionFactory ef, String sql, CouchbaseConnection connection) throws TranslatorException {
+        Call command = (Call) TestN1QLVisitor.translationUtility.parseCommand(sql);
+        ProcedureExecution execution = ef.createProcedureExecution(command, null, TestN1QLVisitor.runtimeMetadata, connection);
+        execution.execute();
+        return execution;
+    }
+
+    private static CouchbaseQueryExecution helpExecute(CouchbaseExecutionFactory ef, String sql, CouchbaseConnection connection) throws TranslatorException {
+        QueryExpression command = (QueryExpression) TestN1QLVisitor.translationUtility.parseCommand(sql);
+        CouchbaseQueryExecution execution = (CouchbaseQueryExecution) ef.createResultSetExecution(command, null, TestN1QLVisitor.runtimeMetadata, connection);
+        execution.execute();
+        return execution;
+    }
+    
+    /**
+     * Records the N1QL queries, the results of which be empty by default, a blocking query has no 
+     * result, the keyspace be named so that the key-value service never be used.
+     */
+    static class RecordingConnection implements CouchbaseConnection {
+        
+        final List<N1qlQuery> queries = Collections.synchronizedList(new ArrayList<N1qlQuery>());
+        Observable<AsyncN1qlQueryResult> result = Observable.empty();
+
+        @Override
+        public String getNamespace() {
+            return "default";
+        }
+
+        @Override
+        public String getKeyspaceName() {
+            return "other";
+        }
+
+        @Override
+        public RawJsonDocument getDocument(String id) {
+            return null;
+        }
+
+        @Override
+        public Observable<RawJsonDocument> getAsyncDocument(String id) {
+            return Observable.empty();
+        }
+
+        @Override
+        public N1qlQueryResult executeQuery(String query) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public N1qlQueryResult executeQuery(N1qlQuery query) {
+            this.queries.add(query);
+            return null;
+        }
+
+        @Override
+        public Observable<AsyncN1qlQueryResult> executeAsyncQuery(N1qlQuery query) {
+            this.queries.add(query);
+            return this.result;
+        }
+
+        @Override
+        public Interaction createInteraction() throws ResourceException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LocalTransaction getLocalTransaction() throws ResourceException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ConnectionMetaData getMetaData() throws ResourceException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ResultSetInfo getResultSetInfo() throws ResourceException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws ResourceException {
+        }
+    }
 
 }
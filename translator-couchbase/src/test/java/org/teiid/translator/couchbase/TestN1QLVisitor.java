@@ -31,6 +31,7 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Map.Entry;
 import java.util.Properties;
 
@@ -69,6 +70,8 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import com.couchbase.client.java.document.json.JsonArray;
+
 @SuppressWarnings("nls")
 public class TestN1QLVisitor {
     
@@ -89,6 +92,7 @@ public class TestN1QLVisitor {
             mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, formCustomer(), mf, customer, customer.getName(), false, new Dimension());
             Table order = createTable(mf, KEYSPACE, "Oder");
             mp.scanRow(KEYSPACE, KEYSPACE_SOURCE, formOder(), mf, order, order.getName(), false, new Dimension());
+            mp.addIndexes(mf, Arrays.asList(customer, order), formIndexes());
             Table t2 = createTable(mf, "T2", "T2");
             mp.scanRow("T2", "`T2`", formDataTypeJson(), mf, t2, t2.getName(), false, new Dimension());
             Table t3 = createTable(mf, "T3", "T3");
@@ -177,10 +181,14 @@ public class TestN1QLVisitor {
     }
     
     private void helpTest(String sql, N1QL key) throws TranslatorException {
+        helpTest(TRANSLATOR, sql, key);
+    }
+    
+    private N1QLVisitor helpTest(CouchbaseExecutionFactory ef, String sql, N1QL key) throws TranslatorException {
 
         Command command = translationUtility.parseCommand(sql);
 
-        N1QLVisitor visitor = TRANSLATOR.getN1QLVisitor();
+        N1QLVisitor visitor = ef.getN1QLVisitor();
         visitor.append(command);
         String actual = visitor.toString();
         
@@ -193,6 +201,7 @@ public class TestN1QLVisitor {
         }
         
         assertEquals(key.name(), N1QL.getProperty(key.name(), ""), actual);
+        return visitor;
     }
     
     @Test
@@ -298,7 +307,8 @@ public class TestN1QLVisitor {
     public void testGroupByClause() throws TranslatorException {
         
         String sql = "SELECT Name, COUNT(*) FROM Customer GROUP BY Name";
-        helpTest(sql, N1QL0701);
+        N1QLVisitor visitor = helpTest(TRANSLATOR, sql, N1QL0701);
+        assertEquals(Arrays.asList("$cb_c1_Name", "$1"), visitor.getResultFields());
     }
     
     @Test
@@ -421,6 +431,115 @@ public class TestN1QLVisitor {
         helpTest(sql, N1QL1308);
     }
     
+    @Test
+    public void testPreparedStatement() throws TranslatorException {
+        
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setUsePreparedStatements(true);
+        ef.start();
+        
+        String sql = "SELECT Name, type  FROM Customer WHERE Name = 'John Doe'";
+        N1QLVisitor visitor = helpTest(ef, sql, N1QL1601);
+        assertEquals(JsonArray.from("John Doe"), visitor.getParameters());
+        
+        sql = "SELECT Name, type  FROM Customer WHERE Name = 'Jane Doe'";
+        visitor = helpTest(ef, sql, N1QL1601);
+        assertEquals(JsonArray.from("Jane Doe"), visitor.getParameters());
+        
+        sql = "SELECT attr_string FROM T2 WHERE attr_integer = 10";
+        visitor = helpTest(ef, sql, N1QL1602);
+        assertEquals(JsonArray.from(10), visitor.getParameters());
+    }
+    
+    @Test
+    public void testBindVariables() throws TranslatorException {
+        
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setUseBindVariables(true);
+        ef.start();
+        
+        String sql = "SELECT Name FROM Customer LIMIT 2, 3";
+        N1QLVisitor visitor = helpTest(ef, sql, N1QL1603);
+        assertEquals(JsonArray.from(3, 2), visitor.getParameters());
+        
+        sql = "call getDocuments('customer%', 'test')";
+        visitor = helpTest(ef, sql, N1QL1604);
+        assertEquals(JsonArray.from("customer", "customes"), visitor.getParameters());
+        
+        sql = "call getDocument('customer', 'test')";
+        visitor = helpTest(ef, sql, N1QL1605);
+        assertEquals(JsonArray.from("customer"), visitor.getParameters());
+    }
+    
+    @Test
+    public void testInCriteria() throws TranslatorException {
+        
+        String sql = "SELECT Name, type FROM Customer WHERE Name IN ('John Doe', 'Jane Doe')";
+        helpTest(sql, N1QL1701);
+        
+        sql = "SELECT Name, type FROM Customer WHERE documentID IN ('customer', 'customer2') AND Name = 'John Doe'";
+        N1QLVisitor visitor = helpTest(TRANSLATOR, sql, N1QL1702);
+        assertEquals(JsonArray.from(JsonArray.from("customer", "customer2")), visitor.getParameters());
+        assertEquals(0, visitor.getUseKeysIndex());
+        
+        sql = "SELECT Name FROM Customer WHERE documentID IN ('customer', 'customer2') UNION ALL SELECT Name FROM Customer WHERE Name = 'John Doe'";
+        visitor = TRANSLATOR.getN1QLVisitor();
+        visitor.append(translationUtility.parseCommand(sql));
+        assertEquals(1, visitor.toString().split("USE KEYS").length - 1);
+        assertTrue(visitor.toString().indexOf("USE KEYS") < visitor.toString().indexOf("UNION ALL"));
+        assertEquals(JsonArray.from(JsonArray.from("customer", "customer2")), visitor.getParameters());
+        assertEquals(-1, visitor.getUseKeysIndex());
+    }
+    
+    @Test
+    public void testCriteria() throws TranslatorException {
+        
+        String sql = "SELECT Name FROM Customer WHERE Name LIKE 'John%' OR Name IS NULL";
+        helpTest(sql, N1QL1801);
+        
+        sql = "SELECT Name FROM Customer WHERE ID >= 'C10' AND ID < 'C20'";
+        helpTest(sql, N1QL1802);
+        
+        sql = "SELECT Name FROM Customer WHERE ID IS NOT NULL";
+        helpTest(sql, N1QL1803);
+        
+        sql = "SELECT Oder_Items_idx, Oder_Items_Quantity FROM Oder_Items WHERE Oder_Items_ItemID > 80000";
+        helpTest(sql, N1QL1804);
+    }
+    
+    @Test
+    public void testDocumentIDRange() throws TranslatorException {
+        
+        String sql = "SELECT Name FROM Customer WHERE documentID LIKE 'customer::2017%'";
+        helpTest(sql, N1QL1901);
+        
+        sql = "SELECT Name FROM Customer WHERE documentID BETWEEN 'customer::1' AND 'customer::5'";
+        helpTest(sql, N1QL1902);
+        
+        sql = "call getTextDocuments('customer::2017::%', 'test')";
+        helpTest(sql, N1QL1903);
+        
+        sql = "call getDocuments('customer%1', 'test')";
+        helpTest(sql, N1QL1904);
+    }
+    
+    @Test
+    public void testCoveringIndex() throws TranslatorException {
+        
+        CouchbaseExecutionFactory ef = new CouchbaseExecutionFactory();
+        ef.setUseIndexHints(true);
+        ef.start();
+        
+        String sql = "SELECT Name FROM Customer WHERE Name LIKE 'John%'";
+        helpTest(ef, sql, N1QL2001);
+        
+        sql = "SELECT Name, ID FROM Customer WHERE Name = 'John Doe'";
+        helpTest(ef, sql, N1QL2002);
+        
+        sql = "SELECT Name, type FROM Oder WHERE Name = 'Air Ticket'";
+        helpTest(ef, sql, N1QL2003);
+    }
+    
     public static enum N1QL {
         N1QL0101,
         N1QL0102,
@@ -486,7 +605,25 @@ public class TestN1QLVisitor {
         N1QL1307,
         N1QL1308,
         N1QL1401,
-        N1QL1501
+        N1QL1501,
+        N1QL1601,
+        N1QL1602,
+        N1QL1603,
+        N1QL1604,
+        N1QL1605,
+        N1QL1701,
+        N1QL1702,
+        N1QL1801,
+        N1QL1802,
+        N1QL1803,
+        N1QL1804,
+        N1QL1901,
+        N1QL1902,
+        N1QL1903,
+        N1QL1904,
+        N1QL2001,
+        N1QL2002,
+        N1QL2003
     }
     
 }